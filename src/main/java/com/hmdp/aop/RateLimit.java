@@ -0,0 +1,52 @@
+package com.hmdp.aop;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接口限流规则，由 RateLimitInterceptor 执行，同一个接口可以声明多条规则，全部满足才放行
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Repeatable(RateLimits.class)
+public @interface RateLimit {
+
+    enum Dimension {
+        /**
+         * 按客户端ip
+         */
+        IP,
+        /**
+         * 按请求参数 phone，参数为空时不限流
+         */
+        PHONE,
+        /**
+         * 按请求头 authorization 中的 token，未登录时不限流
+         */
+        TOKEN
+    }
+
+    enum Algorithm {
+        /**
+         * 滑动窗口：任意 period 时间内最多放行 permits 个请求
+         */
+        SLIDING_WINDOW,
+        /**
+         * 令牌桶：桶容量为 permits，每 period 时间生成 permits 个令牌，允许突发
+         */
+        TOKEN_BUCKET
+    }
+
+    Dimension by();
+
+    Algorithm algorithm() default Algorithm.SLIDING_WINDOW;
+
+    int permits();
+
+    long period();
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    String message() default "请求过于频繁，请稍后再试";
+}
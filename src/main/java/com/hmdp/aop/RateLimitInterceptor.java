@@ -0,0 +1,96 @@
+package com.hmdp.aop;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.IpUtils;
+import com.hmdp.utils.RateLimiter;
+import org.springframework.util.StringUtils;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按 {@link RateLimit} 注解限流，被拒绝时返回 429 和 Retry-After 响应头
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+    private static final RateLimit[] NO_RULES = new RateLimit[0];
+
+    private final RateLimiter rateLimiter;
+
+    /**
+     * 反向代理传递客户端ip的请求头，为空时使用连接的对端地址
+     */
+    private final String ipHeader;
+
+    /**
+     * 每个接口的限流规则和对应的 key 前缀，避免每次请求反射读取注解
+     */
+    private final Map<Method, RateLimit[]> rules = new ConcurrentHashMap<>();
+
+    private final Map<Method, String> keyPrefixes = new ConcurrentHashMap<>();
+
+    public RateLimitInterceptor(RateLimiter rateLimiter, String ipHeader) {
+        this.rateLimiter = rateLimiter;
+        this.ipHeader = ipHeader;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        //1. 获取接口上的限流规则
+        Method method = ((HandlerMethod) handler).getMethod();
+        RateLimit[] limits = rules.computeIfAbsent(method, m -> {
+            RateLimit[] annotations = m.getAnnotationsByType(RateLimit.class);
+            return annotations.length == 0 ? NO_RULES : annotations;
+        });
+        if (limits.length == 0) {
+            return true;
+        }
+        String prefix = keyPrefixes.computeIfAbsent(method, m -> m.getDeclaringClass().getSimpleName() + "." + m.getName() + ":");
+        //2. 收集每条规则的限流key，限流维度的值为空时跳过
+        List<String> keys = new ArrayList<>(limits.length);
+        List<RateLimit> matched = new ArrayList<>(limits.length);
+        for (int i = 0; i < limits.length; i++) {
+            String value = dimensionValue(request, limits[i].by());
+            if (!StringUtils.isEmpty(value)) {
+                keys.add(prefix + i + ":" + value);
+                matched.add(limits[i]);
+            }
+        }
+        if (keys.isEmpty()) {
+            return true;
+        }
+        //3. 一次检查全部规则，任意一条被拒绝时都不消耗许可
+        RateLimiter.Rejection rejection = rateLimiter.tryAcquire(keys, matched);
+        if (rejection != null) {
+            //3.1. 被限流，返回 429
+            response.setStatus(429);
+            response.setHeader("Retry-After", String.valueOf((rejection.getWait() + 999) / 1000));
+            response.setContentType("application/json;charset=UTF-8");
+            response.getWriter().write(JSONUtil.toJsonStr(Result.fail(matched.get(rejection.getIndex()).message())));
+            return false;
+        }
+        //4. 放行
+        return true;
+    }
+
+    private String dimensionValue(HttpServletRequest request, RateLimit.Dimension dimension) {
+        switch (dimension) {
+            case PHONE:
+                return request.getParameter("phone");
+            case TOKEN:
+                return request.getHeader("authorization");
+            default:
+                return IpUtils.getClientIp(request, ipHeader);
+        }
+    }
+}
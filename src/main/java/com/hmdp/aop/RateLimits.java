@@ -0,0 +1,14 @@
+package com.hmdp.aop;
+
+import java.lang.annotation.*;
+
+/**
+ * {@link RateLimit} 的容器注解
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RateLimits {
+
+    RateLimit[] value();
+}
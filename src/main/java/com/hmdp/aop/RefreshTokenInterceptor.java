@@ -1,23 +1,19 @@
 package com.hmdp.aop;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.UserDTO;
-import com.hmdp.utils.RedisService;
+import com.hmdp.utils.SessionCache;
 import com.hmdp.utils.UserHolder;
 import org.springframework.util.StringUtils;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
 
 public class RefreshTokenInterceptor implements HandlerInterceptor {
-    private final RedisService redisSerivce;
+    private final SessionCache sessionCache;
 
-    public RefreshTokenInterceptor(RedisService redisService) {
-        this.redisSerivce = redisService;
+    public RefreshTokenInterceptor(SessionCache sessionCache) {
+        this.sessionCache = sessionCache;
     }
 
     @Override
@@ -28,15 +24,14 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
             response.setStatus(401);
             return false;
         }
-        //2.基于Token获取redis中的用户
-        Map<Object, Object> user = redisSerivce.entries(LOGIN_USER_KEY + token);
+        //2.基于Token获取用户，优先查本地缓存，即将过期时由 SessionCache 批量续期
+        UserDTO userDTO = sessionCache.get(token);
         //3. 判断用户是否存在
-        if (user.isEmpty()){
+        if (userDTO == null){
             //4. 不存在，拦截
             response.setStatus(401);
             return false;
         }
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(user, new UserDTO(), false);
         //5. 存在 保存用户信息到ThreadLocal
         UserHolder.saveUser(userDTO);
         //6. 放行
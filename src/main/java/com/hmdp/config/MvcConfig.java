@@ -1,9 +1,13 @@
 package com.hmdp.config;
 
 import com.hmdp.aop.LoginInterceptor;
+import com.hmdp.aop.RateLimitInterceptor;
 import com.hmdp.aop.RefreshTokenInterceptor;
+import com.hmdp.utils.RateLimiter;
 import com.hmdp.utils.RedisService;
+import com.hmdp.utils.SessionCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -14,6 +18,18 @@ public class MvcConfig implements WebMvcConfigurer {
     @Autowired
     private RedisService redisService;
 
+    @Autowired
+    private SessionCache sessionCache;
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    @Value("${hmdp.rate-limit.enabled:true}")
+    private boolean rateLimitEnabled;
+
+    @Value("${hmdp.rate-limit.ip-header:}")
+    private String rateLimitIpHeader;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         // 登录拦截器
@@ -27,6 +43,10 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/code",
                         "/user/login"
                 );
-        registry.addInterceptor(new RefreshTokenInterceptor(redisService)).addPathPatterns("/**").order(-1);
+        registry.addInterceptor(new RefreshTokenInterceptor(sessionCache)).addPathPatterns("/**").order(-1);
+        // 限流拦截器，最先执行，被限流的请求不再查询登录用户
+        if (rateLimitEnabled) {
+            registry.addInterceptor(new RateLimitInterceptor(rateLimiter, rateLimitIpHeader)).addPathPatterns("/**").order(-2);
+        }
     }
 }
@@ -2,6 +2,7 @@ package com.hmdp.config;
 
 import com.hmdp.utils.Threads;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
@@ -41,6 +42,18 @@ public class ThreadPoolConfig {
         };
     }
 
+    @Bean("seckillOrderExecutor")
+    public ThreadPoolTaskExecutor seckillOrderExecutor(@Value("${hmdp.seckill.order-consumers:4}") int consumers) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(consumers);
+        executor.setMaxPoolSize(consumers);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("seckillOrder-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        return executor;
+    }
+
     @Bean("taskExecutor")
     public Executor taskExecutor() {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
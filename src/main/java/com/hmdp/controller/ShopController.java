@@ -4,12 +4,18 @@ package com.hmdp.controller;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.IpUtils;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UvCounter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * <p>
@@ -26,14 +32,41 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private UvCounter uvCounter;
+
+    @Value("${hmdp.rate-limit.ip-header:}")
+    private String ipHeader;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-        return Result.ok(shopService.queryById(id));
+    public Result queryShopById(@PathVariable("id") Long id, HttpServletRequest request) {
+        Result result = shopService.queryById(id);
+        // 商铺存在时才记录访客，不存在的id不会在 Redis 中创建计数器
+        if (Boolean.TRUE.equals(result.getSuccess())) {
+            // 登录用户按用户id去重，未登录按ip去重
+            UserDTO user = UserHolder.getUser();
+            uvCounter.record("shop", id, user != null ? user.getId().toString() : "ip:" + IpUtils.getClientIp(request, ipHeader));
+        }
+        return result;
+    }
+
+    /**
+     * 查询商铺最近几天的独立访客数
+     * @param id 商铺id
+     * @param days 统计天数，1 表示今天
+     * @return 独立访客数
+     */
+    @GetMapping("/{id}/uv")
+    public Result queryShopUv(@PathVariable("id") Long id, @RequestParam(value = "days", defaultValue = "1") Integer days) {
+        if (days < 1 || days > 31) {
+            return Result.fail("统计天数须在 1 到 31 之间");
+        }
+        return Result.ok(uvCounter.countLastDays("shop", id, days));
     }
 
     /**
@@ -43,10 +76,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，并加入布隆过滤器
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -56,28 +87,35 @@ public class ShopController {
      */
     @PutMapping
     public Result updateShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.updateById(shop);
-        return Result.ok();
+        // 写入数据库，并清除各级缓存
+        return shopService.updateShop(shop);
+    }
+
+    /**
+     * 查询商铺缓存各级命中率
+     * @return 本地缓存和 Redis 缓存的命中统计
+     */
+    @GetMapping("/cache/stats")
+    public Result queryCacheStats() {
+        return shopService.queryCacheStats();
     }
 
     /**
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
-     * @return 商铺列表
+     * @param x 经度，可选
+     * @param y 纬度，可选
+     * @return 商铺列表，传入坐标时按距离排序
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByType(typeId, current, x, y);
     }
 
     /**
@@ -1,10 +1,12 @@
 package com.hmdp.controller;
 
 
+import com.hmdp.aop.RateLimit;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.UserInfo;
+import com.hmdp.service.ISignService;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.UserHolder;
@@ -13,6 +15,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpSession;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -33,10 +36,16 @@ public class UserController {
     @Autowired
     private IUserInfoService userInfoService;
 
+    @Autowired
+    private ISignService signService;
+
     /**
      * 发送手机验证码
      */
     @PostMapping("code")
+    @RateLimit(by = RateLimit.Dimension.PHONE, permits = 1, period = 60, message = "验证码发送过于频繁，请 1 分钟后再试")
+    @RateLimit(by = RateLimit.Dimension.PHONE, permits = 10, period = 1, unit = TimeUnit.DAYS, message = "今日验证码发送次数已达上限")
+    @RateLimit(by = RateLimit.Dimension.IP, permits = 20, period = 1, unit = TimeUnit.HOURS)
     public Result sendCode(@RequestParam("phone") String phone, HttpSession session) {
         // 发送短信验证码并保存验证码
         return userService.sendCode(phone, session);
@@ -47,6 +56,7 @@ public class UserController {
      * @param loginForm 登录参数，包含手机号、验证码；或者手机号、密码
      */
     @PostMapping("/login")
+    @RateLimit(by = RateLimit.Dimension.IP, algorithm = RateLimit.Algorithm.TOKEN_BUCKET, permits = 10, period = 1, unit = TimeUnit.MINUTES)
     public Result login(@RequestBody LoginFormDTO loginForm, HttpSession session){
         // 实现登录功能
         return userService.login(loginForm, session);
@@ -57,9 +67,17 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader("authorization") String token){
+        return userService.logout(token);
+    }
+
+    /**
+     * 在所有设备上登出
+     * @return 无
+     */
+    @PostMapping("/logout/all")
+    public Result logoutAll(){
+        return userService.logoutAll();
     }
 
     @GetMapping("/me")
@@ -81,4 +99,20 @@ public class UserController {
         // 返回
         return Result.ok(info);
     }
+
+    /**
+     * 当天签到
+     */
+    @PostMapping("/sign")
+    public Result sign(){
+        return signService.sign();
+    }
+
+    /**
+     * 本月截止今天的连续签到天数和签到总数
+     */
+    @GetMapping("/sign/count")
+    public Result signCount(){
+        return signService.signCount();
+    }
 }
@@ -45,6 +45,16 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 按数据库中的剩余库存重新预热秒杀库存，用于预热前创建的优惠券或 Redis 数据丢失后恢复
+     * @param id 优惠券id
+     * @return 预热的库存数
+     */
+    @PostMapping("seckill/{id}/stock")
+    public Result preloadSeckillStock(@PathVariable("id") Long id) {
+        return voucherService.preloadSeckillStock(id);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -0,0 +1,15 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class SignCountDTO {
+    /**
+     * 截止今天的连续签到天数
+     */
+    private Integer streak;
+    /**
+     * 本月签到总天数
+     */
+    private Long total;
+}
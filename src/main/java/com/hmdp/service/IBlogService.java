@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,22 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    Result saveBlog(Blog blog);
+
+    Result likeBlog(Long id);
+
+    /**
+     * 新增评论后更新评论数和热榜
+     */
+    void commentAdded(Long blogId);
+
+    Result queryHotBlog(Integer current);
+
+    /**
+     * 滚动分页查询关注的人发布的博文
+     * @param max 上一页的最小时间戳，第一页传当前时间
+     * @param offset 上一页中与最小时间戳相同的博文个数，第一页传 0
+     */
+    Result queryBlogOfFollow(Long max, Integer offset);
+
 }
@@ -1,8 +1,11 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Set;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +16,28 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IFollowService extends IService<Follow> {
 
+    Result follow(Long followUserId, Boolean isFollow);
+
+    Result isFollow(Long followUserId);
+
+    /**
+     * 查询当前用户与指定用户的共同关注
+     */
+    Result followCommons(Long id);
+
+    /**
+     * 查询指定用户的关注数
+     */
+    Result queryFollowCount(Long id);
+
+    /**
+     * 查询某个用户的粉丝数，读取 Redis 的粉丝集合，不查询数据库
+     */
+    long countFollowers(Long userId);
+
+    /**
+     * 查询某个用户关注的所有用户id
+     */
+    Set<Long> queryFollowingIds(Long userId);
+
 }
@@ -15,4 +15,22 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
+
+    Result saveShop(Shop shop);
+
+    Result updateShop(Shop shop);
+
+    Result queryCacheStats();
+
+    /**
+     * 根据商铺类型分页查询商铺，传入坐标时按距离由近到远排序
+     */
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    /**
+     * 预热热点商铺，写入带逻辑过期时间的缓存
+     * @param id 商铺id
+     * @param expireSeconds 逻辑过期时间，单位秒
+     */
+    void saveShop2Redis(Long id, Long expireSeconds);
 }
@@ -1,6 +1,5 @@
 package com.hmdp.service;
 
-import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -14,5 +13,9 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
-    Result queryTypeList();
+    /**
+     * 查询全部商铺类型
+     * @return 预先序列化好的 Result 响应体，调用方不能修改
+     */
+    byte[] queryTypeList();
 }
@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -20,4 +23,19 @@ public interface IUserService extends IService<User> {
     Result sendCode(String phone, HttpSession session);
 
     Result login(LoginFormDTO loginFormDTO, HttpSession session);
+
+    /**
+     * 注销当前 token
+     */
+    Result logout(String token);
+
+    /**
+     * 注销当前用户在所有设备上的 token
+     */
+    Result logoutAll();
+
+    /**
+     * 批量查询用户信息，先批量查询 Redis，未命中的一次查询数据库并批量写回
+     */
+    Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids);
 }
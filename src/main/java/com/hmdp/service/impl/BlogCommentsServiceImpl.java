@@ -1,11 +1,16 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.utils.UserHolder;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +22,17 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    @Resource
+    private IBlogService blogService;
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        // 获取登录用户
+        comment.setUserId(UserHolder.getUser().getId());
+        // 保存评论
+        save(comment);
+        // 更新博文评论数和热榜
+        blogService.commentAdded(comment.getBlogId());
+        return Result.ok(comment.getId());
+    }
 }
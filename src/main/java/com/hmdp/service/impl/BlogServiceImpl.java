@@ -1,10 +1,42 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IFollowService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.FeedMerger;
+import com.hmdp.utils.RedisService;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UUIDUtil;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -14,7 +46,421 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
+    /**
+     * 点赞数回写任务锁的过期时间，单位秒
+     */
+    private static final long LIKED_FLUSH_LOCK_TTL = 30;
+    /**
+     * 热榜对账任务锁的过期时间，单位秒
+     */
+    private static final long HOT_RECONCILE_LOCK_TTL = 300;
+    /**
+     * 热榜对账时每批读取的博文数量
+     */
+    private static final int HOT_RECONCILE_BATCH = 1000;
+    /**
+     * 热度计算的起始时间 2022-01-01 00:00:00 UTC
+     */
+    private static final long HOT_EPOCH_SECONDS = 1640995200L;
+    /**
+     * 推送博文时每批读取的粉丝数量
+     */
+    private static final int FEED_PUSH_BATCH = 1000;
+    /**
+     * 本地大V名单与 Redis 同步的间隔，单位秒
+     */
+    private static final long CELEBRITY_SYNC_SECONDS = 60;
+
+    @Autowired
+    private RedisService redisService;
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private IFollowService followService;
+
+    @Qualifier("taskExecutor")
+    @Autowired
+    private Executor taskExecutor;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Qualifier("scheduledExecutorService")
+    @Autowired
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 点赞数回写数据库的间隔
+     */
+    @Value("${hmdp.blog.liked-flush-seconds:5}")
+    private long likedFlushSeconds;
+
+    /**
+     * 热度 = 点赞权重 * 点赞数 + 评论权重 * 评论数 + 发布时间 / 衰减周期
+     * 发布越晚基础分越高，相当于旧博文的热度随时间衰减，点赞和评论可以直接用 ZINCRBY 增量更新
+     */
+    @Value("${hmdp.blog.hot-like-weight:1}")
+    private double hotLikeWeight;
+
+    @Value("${hmdp.blog.hot-comment-weight:2}")
+    private double hotCommentWeight;
+
+    /**
+     * 衰减周期：晚发布这么多小时的博文，基础分高 1 分
+     */
+    @Value("${hmdp.blog.hot-gravity-hours:2}")
+    private double hotGravityHours;
+
+    /**
+     * 热榜与数据库对账的间隔
+     */
+    @Value("${hmdp.blog.hot-reconcile-minutes:10}")
+    private long hotReconcileMinutes;
+
+    /**
+     * 每个用户收件箱保留的最大博文数
+     */
+    @Value("${hmdp.feed.inbox-max-size:1000}")
+    private long inboxMaxSize;
+
+    /**
+     * 是否开启推拉结合：粉丝数达到阈值的大V只写自己的发件箱，读者读取时拉取并归并
+     */
+    @Value("${hmdp.feed.hybrid:true}")
+    private boolean feedHybrid;
+
+    @Value("${hmdp.feed.celebrity-threshold:10000}")
+    private long celebrityThreshold;
+
+    /**
+     * 本地缓存的大V名单，读关注流时与关注列表求交集
+     */
+    private volatile Set<Long> celebrities = Collections.emptySet();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleLikedFlush() {
+        scheduler.scheduleWithFixedDelay(this::flushLiked, likedFlushSeconds, likedFlushSeconds, TimeUnit.SECONDS);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleHotReconcile() {
+        // 启动时立即重建一次热榜
+        scheduler.scheduleWithFixedDelay(this::reconcileHotBlogs, 0, hotReconcileMinutes, TimeUnit.MINUTES);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleCelebritySync() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            Set<String> members = redisService.members(FEED_CELEBRITY_KEY);
+            celebrities = members == null ? Collections.emptySet()
+                    : members.stream().map(Long::valueOf).collect(Collectors.toSet());
+        }, 0, CELEBRITY_SYNC_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public Result saveBlog(Blog blog) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        // 点赞数和评论数的列默认为 NULL，初始化为 0，累加时不会一直是 NULL
+        blog.setLiked(0);
+        blog.setComments(0);
+        // 保存探店博文
+        save(blog);
+        // 加入热榜，初始热度只有发布时间
+        redisService.zadd(BLOG_HOT_KEY, blog.getId().toString(), hotness(0, 0, LocalDateTime.now()));
+        // 异步推送到粉丝的收件箱，或写入大V的发件箱
+        long timestamp = System.currentTimeMillis();
+        taskExecutor.execute(() -> publishToFeed(user.getId(), blog.getId(), timestamp));
+        // 返回id
+        return Result.ok(blog.getId());
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        // 1.获取登录用户
+        String userId = UserHolder.getUser().getId().toString();
+        String key = BLOG_LIKED_KEY + id;
+        // 2.判断当前登录用户是否已经点赞
+        Double score = redisService.zscore(key, userId);
+        if (score == null) {
+            // 3.未点赞，保存用户到 Redis 的 sorted set，分数为点赞时间
+            // 只有真正新增成员的请求才累加点赞数，同一用户的并发点击不会重复计数
+            if (Boolean.TRUE.equals(redisService.zadd(key, userId, System.currentTimeMillis()))) {
+                redisService.hincrement(BLOG_LIKED_DELTA_KEY, id.toString(), 1L);
+                redisService.zincrby(BLOG_HOT_KEY, id.toString(), hotLikeWeight);
+            }
+        } else {
+            // 4.已点赞，取消点赞
+            Long removed = redisService.zRemove(key, userId);
+            if (removed != null && removed > 0) {
+                redisService.hincrement(BLOG_LIKED_DELTA_KEY, id.toString(), -1L);
+                redisService.zincrby(BLOG_HOT_KEY, id.toString(), -hotLikeWeight);
+            }
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public void commentAdded(Long blogId) {
+        update().setSql("comments = IFNULL(comments, 0) + 1").eq("id", blogId).update();
+        redisService.zincrby(BLOG_HOT_KEY, blogId.toString(), hotCommentWeight);
+    }
+
+    @Override
+    public Result queryHotBlog(Integer current) {
+        // 1.从热榜中查询当前页的博文id ZREVRANGE blog:hot start end
+        long start = (long) (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        Set<String> ids = redisService.zrevrange(BLOG_HOT_KEY, start, start + SystemConstants.MAX_PAGE_SIZE - 1);
+        List<Blog> records;
+        if (ids != null && !ids.isEmpty()) {
+            // 2.按热榜顺序批量查询博文
+            records = listByIdsInOrder(ids);
+        } else if (Boolean.TRUE.equals(redisService.hasKey(BLOG_HOT_KEY))) {
+            // 2.1.超出热榜范围
+            return Result.ok(Collections.emptyList());
+        } else {
+            // 2.2.热榜尚未生成，降级查询数据库
+            records = query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE)).getRecords();
+        }
+        // 3.批量查询作者和点赞状态，往返次数与分页大小无关
+        fillBlogUsers(records);
+        isBlogLiked(records);
+        return Result.ok(records);
+    }
+
+    private void publishToFeed(Long userId, Long blogId, long timestamp) {
+        if (feedHybrid && isCelebrity(userId)) {
+            // 拉模式：大V只写自己的发件箱 feed:out:用户id，一次写入
+            redisService.zaddEach(Collections.singletonList(FEED_OUTBOX_KEY + userId), blogId.toString(), timestamp, inboxMaxSize);
+            return;
+        }
+        pushToFollowers(userId, blogId, timestamp);
+    }
+
+    /**
+     * 粉丝数达到阈值后加入大V名单，之后不再移出
+     * 大V的旧博文只在发件箱中，移出名单会导致读者读不到这些博文
+     */
+    private boolean isCelebrity(Long userId) {
+        if (celebrities.contains(userId) || Boolean.TRUE.equals(redisService.isMember(FEED_CELEBRITY_KEY, userId.toString()))) {
+            return true;
+        }
+        if (followService.countFollowers(userId) < celebrityThreshold) {
+            return false;
+        }
+        redisService.sadd(FEED_CELEBRITY_KEY, userId.toString());
+        return true;
+    }
+
+    /**
+     * 推模式：博文id写入所有粉丝的收件箱 feed:粉丝id，分数为发布时间
+     */
+    private void pushToFollowers(Long userId, Long blogId, long timestamp) {
+        // 1.SSCAN followers:userId 分批读取粉丝，不查询数据库
+        try (Stream<String> followers = redisService.sscan(FOLLOWER_KEY + userId, FEED_PUSH_BATCH)) {
+            List<String> keys = new ArrayList<>(FEED_PUSH_BATCH);
+            Iterator<String> it = followers.iterator();
+            while (it.hasNext()) {
+                keys.add(FEED_KEY + it.next());
+                // 2.每批粉丝一次往返写入收件箱，并裁剪到最大长度
+                if (keys.size() >= FEED_PUSH_BATCH || !it.hasNext()) {
+                    redisService.zaddEach(keys, blogId.toString(), timestamp, inboxMaxSize);
+                    keys = new ArrayList<>(FEED_PUSH_BATCH);
+                }
+            }
+        } catch (Exception e) {
+            log.error("推送博文到粉丝收件箱失败，博文：{}", blogId, e);
+        }
+    }
+
+    @Override
+    public Result queryBlogOfFollow(Long max, Integer offset) {
+        // 1.获取当前用户
+        Long userId = UserHolder.getUser().getId();
+        // 2.需要读取的来源：自己的收件箱，以及关注的大V的发件箱
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        Set<Long> celebrities = this.celebrities;
+        if (feedHybrid && !celebrities.isEmpty()) {
+            for (Long followUserId : followService.queryFollowingIds(userId)) {
+                if (celebrities.contains(followUserId)) {
+                    keys.add(FEED_OUTBOX_KEY + followUserId);
+                }
+            }
+        }
+        // 3.一次往返读取每个来源的前 offset+count 个元素 ZREVRANGEBYSCORE key max 0 LIMIT 0 offset+count
+        List<Set<ZSetOperations.TypedTuple<String>>> sources = redisService.zrevrangeByScoreWithScores(
+                keys, 0, max, 0, offset + SystemConstants.MAX_PAGE_SIZE);
+        // 4.多路归并出当前页，并计算下一页的 minTime 和 offset
+        ScrollResult r = FeedMerger.merge(sources, max, offset, SystemConstants.MAX_PAGE_SIZE);
+        @SuppressWarnings("unchecked")
+        List<String> ids = (List<String>) r.getList();
+        if (ids.isEmpty()) {
+            return Result.ok(new ScrollResult());
+        }
+        // 5.按归并顺序批量查询博文、作者和点赞状态
+        List<Blog> blogs = listByIdsInOrder(ids);
+        fillBlogUsers(blogs);
+        isBlogLiked(blogs);
+        r.setList(blogs);
+        return Result.ok(r);
+    }
+
+    private List<Blog> listByIdsInOrder(Collection<String> ids) {
+        Map<Long, Blog> blogs = listByIds(ids.stream().map(Long::valueOf).collect(Collectors.toList()))
+                .stream().collect(Collectors.toMap(Blog::getId, blog -> blog));
+        List<Blog> records = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            // 已删除的博文在下次对账时移出热榜
+            Blog blog = blogs.get(Long.valueOf(id));
+            if (blog != null) {
+                records.add(blog);
+            }
+        }
+        return records;
+    }
+
+    private void fillBlogUsers(List<Blog> blogs) {
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = userService.queryUserDTOs(userIds);
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
+
+    private void isBlogLiked(List<Blog> blogs) {
+        // 未登录用户不需要查询是否点赞
+        UserDTO user = UserHolder.getUser();
+        if (user == null || blogs.isEmpty()) {
+            return;
+        }
+        List<String> keys = blogs.stream().map(blog -> BLOG_LIKED_KEY + blog.getId()).collect(Collectors.toList());
+        List<Double> scores = redisService.zscores(keys, user.getId().toString());
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
+    private double hotness(long liked, long comments, LocalDateTime createTime) {
+        long seconds = createTime.atZone(ZoneId.systemDefault()).toEpochSecond() - HOT_EPOCH_SECONDS;
+        return hotLikeWeight * liked + hotCommentWeight * comments + seconds / (hotGravityHours * 3600);
+    }
+
+    /**
+     * 按数据库重新计算全部博文的热度写入临时key，补上重建期间的增量后用 RENAME 原子替换热榜
+     * 修正增量更新丢失的事件，并移除已删除的博文
+     */
+    private void reconcileHotBlogs() {
+        String token = UUIDUtil.getUUID();
+        if (!Boolean.TRUE.equals(redisService.setIfNotExist(LOCK_BLOG_HOT_RECONCILE_KEY, token, HOT_RECONCILE_LOCK_TTL, TimeUnit.SECONDS))) {
+            return;
+        }
+        String tmpKey = BLOG_HOT_KEY + ":tmp:" + System.nanoTime();
+        String baseKey = BLOG_HOT_KEY + ":base:" + System.nanoTime();
+        try {
+            // 1.复制当前热榜作为基准，重建期间的 ZINCRBY 等于替换前热榜与基准的差值
+            redisService.pipelined(pipeline -> pipeline
+                    .zunionstore(baseKey, new double[]{1}, BLOG_HOT_KEY)
+                    .expire(baseKey, HOT_RECONCILE_LOCK_TTL, TimeUnit.SECONDS));
+            // 1.1.尚未回写数据库的点赞增量，先于数据库读取，与回写任务并发时最多多算一轮增量，下次对账修正
+            // 正在回写的快照也尚未计入数据库
+            Map<Object, Object> deltas = new HashMap<>(redisService.entries(BLOG_LIKED_DELTA_FLUSHING_KEY));
+            redisService.entries(BLOG_LIKED_DELTA_KEY).forEach((id, delta) -> deltas.merge(id, delta,
+                    (a, b) -> Long.parseLong(a.toString()) + Long.parseLong(b.toString())));
+            // 2.分批读取博文，计算热度写入临时key
+            long lastId = 0;
+            boolean empty = true;
+            while (true) {
+                List<Blog> blogs = query().select("id", "liked", "comments", "create_time")
+                        .gt("id", lastId).orderByAsc("id")
+                        .last("limit " + HOT_RECONCILE_BATCH).list();
+                if (blogs.isEmpty()) {
+                    break;
+                }
+                Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(blogs.size());
+                for (Blog blog : blogs) {
+                    String id = blog.getId().toString();
+                    Object delta = deltas.get(id);
+                    long liked = (blog.getLiked() == null ? 0 : blog.getLiked()) + (delta == null ? 0 : Long.parseLong(delta.toString()));
+                    long comments = blog.getComments() == null ? 0 : blog.getComments();
+                    LocalDateTime createTime = blog.getCreateTime() == null ? LocalDateTime.now() : blog.getCreateTime();
+                    tuples.add(new DefaultTypedTuple<>(id, hotness(liked, comments, createTime)));
+                }
+                redisService.zadd(tmpKey, tuples);
+                empty = false;
+                if (blogs.size() < HOT_RECONCILE_BATCH) {
+                    break;
+                }
+                lastId = blogs.get(blogs.size() - 1).getId();
+            }
+            // 3.在一个事务中补上重建期间的增量并替换热榜
+            if (empty) {
+                redisService.delete(BLOG_HOT_KEY);
+            } else {
+                String diffKey = BLOG_HOT_KEY + ":diff:" + System.nanoTime();
+                redisService.transaction(tx -> tx
+                        // 3.1.diff = 当前热榜 - 基准，去掉没有变化的成员，已删除的博文不会被带回热榜
+                        .zunionstore(diffKey, new double[]{1, -1}, BLOG_HOT_KEY, baseKey)
+                        .zremrangeByScore(diffKey, 0, 0)
+                        // 3.2.tmp = tmp + diff，重建期间新发布的博文也在 diff 中
+                        .zunionstore(tmpKey, new double[]{1, 1}, tmpKey, diffKey)
+                        .rename(tmpKey, BLOG_HOT_KEY)
+                        .delete(diffKey));
+            }
+        } catch (Exception e) {
+            log.error("热榜对账失败", e);
+            redisService.delete(tmpKey);
+        } finally {
+            redisService.delete(baseKey);
+            redisService.unlock(LOCK_BLOG_HOT_RECONCILE_KEY, token);
+        }
+    }
 
+    /**
+     * 把 Redis 中累计的点赞增量批量回写数据库
+     * 先把增量 hash RENAME 为快照，之后的点赞写入新的增量 hash；快照写入数据库后删除
+     * 回写失败时快照保留，下一轮先重新回写快照，不会丢失也不会与新增量混在一起
+     */
+    private void flushLiked() {
+        // 多个节点只需要一个节点回写，否则同一份增量会被重复累加
+        String token = UUIDUtil.getUUID();
+        if (!Boolean.TRUE.equals(redisService.setIfNotExist(LOCK_BLOG_LIKED_FLUSH_KEY, token, LIKED_FLUSH_LOCK_TTL, TimeUnit.SECONDS))) {
+            return;
+        }
+        try {
+            // 1.上一轮的快照还在时先回写快照，否则把当前增量转为快照
+            if (!Boolean.TRUE.equals(redisService.hasKey(BLOG_LIKED_DELTA_FLUSHING_KEY))) {
+                if (!Boolean.TRUE.equals(redisService.hasKey(BLOG_LIKED_DELTA_KEY))) {
+                    return;
+                }
+                redisService.rename(BLOG_LIKED_DELTA_KEY, BLOG_LIKED_DELTA_FLUSHING_KEY);
+            }
+            Map<Object, Object> deltas = redisService.entries(BLOG_LIKED_DELTA_FLUSHING_KEY);
+            // 2.在一个事务中批量更新点赞数
+            transactionTemplate.executeWithoutResult(status -> deltas.forEach((id, delta) -> {
+                long d = Long.parseLong(delta.toString());
+                if (d != 0) {
+                    update().setSql("liked = IFNULL(liked, 0) + " + d).eq("id", id).update();
+                }
+            }));
+            // 3.事务提交后删除快照
+            redisService.delete(BLOG_LIKED_DELTA_FLUSHING_KEY);
+        } catch (Exception e) {
+            log.error("回写点赞数失败", e);
+        } finally {
+            redisService.unlock(LOCK_BLOG_LIKED_FLUSH_KEY, token);
+        }
+    }
 }
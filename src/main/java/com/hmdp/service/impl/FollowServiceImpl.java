@@ -1,11 +1,31 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisService;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FOLLOW_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_WARMED_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOWER_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +34,143 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
+    /**
+     * 预热关注集合时每批读取的关注记录数
+     */
+    private static final int FOLLOW_WARM_BATCH = 5000;
+    /**
+     * 预热任务锁的过期时间，单位分钟
+     */
+    private static final long FOLLOW_WARM_LOCK_TTL = 10;
+
+    @Autowired
+    private RedisService redisService;
+
+    @Resource
+    private IUserService userService;
+
+    /**
+     * 把 tb_follow 中已有的关注关系批量加载到 Redis 的关注集合 follows:用户id 和粉丝集合 followers:用户id
+     * 整个集群只加载一次，Redis 数据丢失后自动重新加载；SADD 是幂等的，中断后重跑或与关注请求并发都不会重复计数
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpFollows() {
+        if (!Boolean.TRUE.equals(redisService.setIfNotExist(FOLLOW_WARMED_KEY, "0", FOLLOW_WARM_LOCK_TTL, TimeUnit.MINUTES))) {
+            return;
+        }
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Follow> follows = query().select("id", "user_id", "follow_user_id")
+                        .gt("id", lastId).orderByAsc("id")
+                        .last("limit " + FOLLOW_WARM_BATCH).list();
+                if (follows.isEmpty()) {
+                    break;
+                }
+                // 每批按用户分组，一次 pipeline 写入
+                Map<String, List<String>> sets = follows.stream().collect(Collectors.groupingBy(
+                        follow -> FOLLOW_KEY + follow.getUserId(),
+                        Collectors.mapping(follow -> follow.getFollowUserId().toString(), Collectors.toList())));
+                sets.putAll(follows.stream().collect(Collectors.groupingBy(
+                        follow -> FOLLOWER_KEY + follow.getFollowUserId(),
+                        Collectors.mapping(follow -> follow.getUserId().toString(), Collectors.toList()))));
+                redisService.saddAll(sets);
+                if (follows.size() < FOLLOW_WARM_BATCH) {
+                    break;
+                }
+                lastId = follows.get(follows.size() - 1).getId();
+            }
+            redisService.set(FOLLOW_WARMED_KEY, "1");
+            log.info("关注集合预热完成");
+        } catch (Exception e) {
+            log.error("关注集合预热失败", e);
+            redisService.delete(FOLLOW_WARMED_KEY);
+        }
+    }
+
+    @Override
+    public Result follow(Long followUserId, Boolean isFollow) {
+        // 1.获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
+        // 2.判断到底是关注还是取关
+        if (Boolean.TRUE.equals(isFollow)) {
+            // 3.关注，已关注时不重复新增 SISMEMBER follows:userId followUserId
+            if (Boolean.TRUE.equals(redisService.isMember(FOLLOW_KEY + userId, followUserId.toString()))) {
+                return Result.ok();
+            }
+            Follow follow = new Follow();
+            follow.setUserId(userId);
+            follow.setFollowUserId(followUserId);
+            try {
+                save(follow);
+            } catch (DuplicateKeyException e) {
+                // 并发关注或预热尚未完成时集合里还没有这条关系，由唯一索引去重，仍然补写 Redis
+                log.debug("重复关注 userId={} followUserId={}", userId, followUserId);
+            }
+            // 同步到 Redis 的关注集合和粉丝集合 sadd follows:userId followUserId，sadd followers:followUserId userId
+            redisService.pipelined(pipeline -> pipeline
+                    .sadd(FOLLOW_KEY + userId, followUserId.toString())
+                    .sadd(FOLLOWER_KEY + followUserId, userId.toString()));
+        } else {
+            // 4.取关，删除 delete from tb_follow where user_id = ? and follow_user_id = ?
+            if (remove(new QueryWrapper<Follow>().eq("user_id", userId).eq("follow_user_id", followUserId))) {
+                redisService.pipelined(pipeline -> pipeline
+                        .srem(FOLLOW_KEY + userId, followUserId.toString())
+                        .srem(FOLLOWER_KEY + followUserId, userId.toString()));
+            }
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        // SISMEMBER follows:userId followUserId
+        return Result.ok(Boolean.TRUE.equals(redisService.isMember(FOLLOW_KEY + userId, followUserId.toString())));
+    }
+
+    @Override
+    public Result followCommons(Long id) {
+        // 1.获取当前用户
+        Long userId = UserHolder.getUser().getId();
+        // 2.求交集 SINTER follows:userId follows:id
+        Set<String> intersect = redisService.intersect(FOLLOW_KEY + userId, FOLLOW_KEY + id);
+        if (intersect == null || intersect.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 3.批量查询用户
+        Map<Long, UserDTO> users = userService.queryUserDTOs(
+                intersect.stream().map(Long::valueOf).collect(Collectors.toList()));
+        return Result.ok(new ArrayList<>(users.values()));
+    }
+
+    @Override
+    public Result queryFollowCount(Long id) {
+        // SCARD follows:id
+        Long count = redisService.ssize(FOLLOW_KEY + id);
+        return Result.ok(count == null ? 0 : count);
+    }
+
+    @Override
+    public long countFollowers(Long userId) {
+        // SCARD followers:userId，tb_follow.follow_user_id 上没有索引，不查询数据库
+        Long count = redisService.ssize(FOLLOWER_KEY + userId);
+        return count == null ? 0 : count;
+    }
 
+    @Override
+    public Set<Long> queryFollowingIds(Long userId) {
+        // SMEMBERS follows:userId
+        Set<String> members = redisService.members(FOLLOW_KEY + userId);
+        if (members == null) {
+            return Collections.emptySet();
+        }
+        return members.stream().map(Long::valueOf).collect(Collectors.toSet());
+    }
 }
@@ -1,17 +1,40 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.AsyncManager;
+import com.hmdp.utils.BloomFilter;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisService;
-import org.apache.commons.lang3.StringUtils;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.Transactions;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -21,25 +44,324 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
+    /**
+     * 从数据库加载布隆过滤器时每批读取的id数量
+     */
+    private static final int BLOOM_LOAD_BATCH = 5000;
+    /**
+     * 本地布隆过滤器与 Redis 对账的间隔，兜底丢失的 pub/sub 消息
+     */
+    private static final long BLOOM_SYNC_MINUTES = 10;
+    /**
+     * 导入商铺坐标时每批读取的商铺数量
+     */
+    private static final int GEO_LOAD_BATCH = 5000;
+    /**
+     * 导入商铺坐标任务锁的过期时间，单位分钟
+     */
+    private static final long GEO_LOAD_LOCK_TTL = 10;
+
+    @Autowired
+    CacheClient cacheClient;
+
     @Autowired
     RedisService redisService;
 
+    @Autowired
+    AsyncManager asyncManager;
+
+    @Qualifier("scheduledExecutorService")
+    @Autowired
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 是否使用逻辑过期模式：缓存永不过期，过期后先返回旧数据，由单个线程异步重建
+     */
+    @Value("${hmdp.cache.shop-logical-expire:false}")
+    private boolean logicalExpire;
+
+    @Value("${hmdp.cache.shop-bloom-expected-insertions:1000000}")
+    private long bloomExpectedInsertions;
+
+    @Value("${hmdp.cache.shop-bloom-fpp:0.01}")
+    private double bloomFpp;
+
+    @Value("${hmdp.cache.shop-local-maximum-size:10000}")
+    private long localMaximumSize;
+
+    @Value("${hmdp.cache.shop-local-ttl-seconds:30}")
+    private long localTtlSeconds;
+
+    /**
+     * 延迟双删的间隔，需大于一次回源的耗时
+     */
+    @Value("${hmdp.cache.shop-double-delete-delay-millis:500}")
+    private long doubleDeleteDelayMillis;
+
+    /**
+     * 附近商铺的查询半径
+     */
+    @Value("${hmdp.shop.nearby-radius-meters:5000}")
+    private double nearbyRadiusMeters;
+
+    /**
+     * 附近商铺最多可以翻到的页数，GEORADIUS 每次返回前 页码*页大小 个成员，页码不加限制时深分页的代价随页码线性增长
+     */
+    @Value("${hmdp.shop.nearby-max-page:20}")
+    private int nearbyMaxPage;
+
+    private BloomFilter bloomFilter;
+
+    /**
+     * 一级缓存：本地堆内缓存反序列化后的热点商铺，二级缓存为 Redis
+     */
+    private Cache<Long, Shop> localCache;
+
+    /**
+     * 布隆过滤器加载完成前放行所有请求，避免误拦截
+     */
+    private volatile boolean bloomReady;
+
+    @PostConstruct
+    public void createCaches() {
+        bloomFilter = new BloomFilter(bloomExpectedInsertions, bloomFpp);
+        localCache = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(localTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribeInvalidation() {
+        // 任意节点更新商铺后，所有节点清除本地缓存
+        redisService.subscribe(SHOP_CACHE_CHANNEL, id -> localCache.invalidate(Long.parseLong(id)));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initBloomFilter() {
+        // 1.订阅其他节点新增商铺的消息，同步到本地位图
+        redisService.subscribe(SHOP_BLOOM_CHANNEL, id -> bloomFilter.put(Long.parseLong(id)));
+        // 2.从数据库加载全部商铺id，写入本地位图
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = query().select("id").gt("id", lastId).orderByAsc("id")
+                    .last("limit " + BLOOM_LOAD_BATCH).list();
+            shops.forEach(shop -> bloomFilter.put(shop.getId()));
+            if (shops.size() < BLOOM_LOAD_BATCH) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        // 3.按位或合并到 Redis，不覆盖其他节点在加载期间写入的位，再把合并结果同步回本地
+        String tmpKey = SHOP_BLOOM_KEY + ":tmp:" + System.nanoTime();
+        redisService.setBytes(tmpKey, bloomFilter.toByteArray());
+        redisService.bitOr(SHOP_BLOOM_KEY, SHOP_BLOOM_KEY, tmpKey);
+        redisService.delete(tmpKey);
+        bloomFilter.merge(redisService.getBytes(SHOP_BLOOM_KEY));
+        bloomReady = true;
+        log.info("商铺布隆过滤器加载完成，位数：{}，哈希函数个数：{}", bloomFilter.bitSize(), bloomFilter.hashCount());
+        // 4.定时与 Redis 对账
+        scheduler.scheduleWithFixedDelay(() -> bloomFilter.merge(redisService.getBytes(SHOP_BLOOM_KEY)),
+                BLOOM_SYNC_MINUTES, BLOOM_SYNC_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 按类型把商铺坐标批量导入 Redis 的 GEO 索引 shop:geo:类型id
+     * 整个集群只导入一次，Redis 数据丢失后自动重新导入
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadShopGeo() {
+        if (!Boolean.TRUE.equals(redisService.setIfNotExist(SHOP_GEO_LOADED_KEY, "0", GEO_LOAD_LOCK_TTL, TimeUnit.MINUTES))) {
+            return;
+        }
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = query().select("id", "type_id", "x", "y").gt("id", lastId).orderByAsc("id")
+                        .last("limit " + GEO_LOAD_BATCH).list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                // 每批按类型分组，一次 pipeline 写入 GEOADD shop:geo:typeId x y id
+                Map<String, Map<String, Point>> locations = new HashMap<>();
+                for (Shop shop : shops) {
+                    if (shop.getX() != null && shop.getY() != null) {
+                        locations.computeIfAbsent(SHOP_GEO_KEY + shop.getTypeId(), k -> new HashMap<>())
+                                .put(shop.getId().toString(), new Point(shop.getX(), shop.getY()));
+                    }
+                }
+                redisService.geoAddAll(locations);
+                if (shops.size() < GEO_LOAD_BATCH) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            redisService.set(SHOP_GEO_LOADED_KEY, "1");
+            log.info("商铺坐标导入完成");
+        } catch (Exception e) {
+            log.error("商铺坐标导入失败", e);
+            redisService.delete(SHOP_GEO_LOADED_KEY);
+        }
+    }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        // 1.判断是否需要根据坐标查询
+        if (x == null || y == null) {
+            // 不需要坐标查询，按数据库查询
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        // 2.计算分页参数，超过最大页数直接返回空，不访问 Redis
+        if (current > nearbyMaxPage) {
+            return Result.ok(Collections.emptyList());
+        }
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        // 3.按距离排序查询 GEORADIUS key x y radius m WITHDIST ASC COUNT end
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results =
+                redisService.geoRadius(SHOP_GEO_KEY + typeId, x, y, nearbyRadiusMeters, end);
+        if (results == null) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
+        // 3.1.没有下一页了
+        if (list.size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 4.截取 from ~ end 的部分，记录商铺id和距离
+        List<Long> ids = new ArrayList<>(list.size() - from);
+        Map<Long, Double> distances = new HashMap<>(list.size() - from);
+        list.stream().skip(from).forEach(result -> {
+            Long shopId = Long.valueOf(result.getContent().getName());
+            ids.add(shopId);
+            distances.put(shopId, result.getDistance().getValue());
+        });
+        // 5.批量查询商铺，按距离排序并填充距离
+        Map<Long, Shop> shops = listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, shop -> shop));
+        List<Shop> records = new ArrayList<>(ids.size());
+        for (Long shopId : ids) {
+            Shop shop = shops.get(shopId);
+            if (shop != null) {
+                shop.setDistance(distances.get(shopId));
+                records.add(shop);
+            }
+        }
+        return Result.ok(records);
+    }
+
     @Override
     public Result queryById(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-        String shopJson = redisService.get(key);
+        // 布隆过滤器判断一定不存在的商铺，直接返回，不访问 Redis 和数据库
+        if (bloomReady && !bloomFilter.mightContain(id)) {
+            return Result.fail("店铺不存在！");
+        }
+        // 1.查询本地缓存
+        Shop shop = localCache.getIfPresent(id);
+        if (shop != null) {
+            return Result.ok(shop);
+        }
+        // 2.查询 Redis，未命中再回源数据库
+        shop = logicalExpire
+                ? cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, LOCK_SHOP_KEY, LOCK_SHOP_TTL, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES)
+                : cacheClient.queryWithMutex(CACHE_SHOP_KEY, LOCK_SHOP_KEY, LOCK_SHOP_TTL, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        if (shop == null) {
+            return Result.fail("店铺不存在！");
+        }
+        localCache.put(id, shop);
+        return Result.ok(shop);
+    }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1.写入数据库
+        save(shop);
+        Long id = shop.getId();
+        // 2.加入布隆过滤器：本地位图、Redis 位图，并通知其他节点
+        redisService.setBits(SHOP_BLOOM_KEY, bloomFilter.put(id));
+        redisService.publish(SHOP_BLOOM_CHANNEL, id.toString());
+        // 3.删除可能存在的空值缓存
+        redisService.delete(CACHE_SHOP_KEY + id);
+        // 4.写入 GEO 索引
+        if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+            redisService.geoAdd(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), id.toString());
+        }
+        return Result.ok(id);
+    }
+
+    @Override
+    @Transactional
+    public Result updateShop(Shop shop) {
+        Long id = shop.getId();
+        if (id == null) {
+            return Result.fail("店铺id不能为空");
+        }
+        // 1.类型或坐标变化时查询原来的数据，从旧类型的 GEO 索引中移除
+        boolean geoChanged = shop.getTypeId() != null || shop.getX() != null || shop.getY() != null;
+        Shop old = geoChanged ? getById(id) : null;
+        // 2.写入数据库
+        updateById(shop);
+        // 3.事务提交后删除缓存，并延迟再删除一次，清理并发读请求在提交前回填的旧数据
+        Transactions.afterCommit(() -> {
+            evictCache(id);
+            asyncManager.schedule(() -> evictCache(id), doubleDeleteDelayMillis, TimeUnit.MILLISECONDS);
+            if (old != null) {
+                updateShopGeo(old, shop);
+            }
+        });
+        return Result.ok();
+    }
 
-        if (StringUtils.isNotEmpty(shopJson)) {
-            return Result.ok(JSONUtil.toBean(shopJson, Shop.class));
+    /**
+     * 按合并后的类型和坐标移动 GEO 索引中的成员，更新请求中没有的字段沿用原来的值
+     */
+    private void updateShopGeo(Shop old, Shop shop) {
+        String member = old.getId().toString();
+        Long typeId = shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId();
+        Double x = shop.getX() != null ? shop.getX() : old.getX();
+        Double y = shop.getY() != null ? shop.getY() : old.getY();
+        if (old.getTypeId() != null && !old.getTypeId().equals(typeId)) {
+            redisService.zRemove(SHOP_GEO_KEY + old.getTypeId(), member);
         }
+        if (typeId != null && x != null && y != null) {
+            redisService.geoAdd(SHOP_GEO_KEY + typeId, new Point(x, y), member);
+        }
+    }
 
+    private void evictCache(Long id) {
+        // 删除 Redis 缓存，清除本节点的本地缓存，并通知其他节点清除
+        redisService.delete(CACHE_SHOP_KEY + id);
+        localCache.invalidate(id);
+        redisService.publish(SHOP_CACHE_CHANNEL, id.toString());
+    }
+
+    @Override
+    public Result queryCacheStats() {
+        CacheStats local = localCache.stats();
+        Map<String, Object> l1 = new LinkedHashMap<>();
+        l1.put("hitCount", local.hitCount());
+        l1.put("missCount", local.missCount());
+        l1.put("hitRate", local.hitRate());
+        l1.put("evictionCount", local.evictionCount());
+        l1.put("size", localCache.estimatedSize());
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("l1", l1);
+        stats.put("l2", cacheClient.stats(CACHE_SHOP_KEY));
+        return Result.ok(stats);
+    }
+
+    @Override
+    public void saveShop2Redis(Long id, Long expireSeconds) {
         Shop shop = getById(id);
         if (shop == null) {
-            return Result.fail("店铺不存在！");
+            return;
         }
-        redisService.set(key, JSONUtil.toJsonStr(shop));
-        return Result.ok(shop);
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
     }
 }
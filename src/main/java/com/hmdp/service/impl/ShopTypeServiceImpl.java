@@ -1,56 +1,168 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.collection.CollectionUtil;
-import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisService;
+import com.hmdp.utils.UUIDUtil;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TYPE_KEY;
 import static com.hmdp.utils.RedisConstants.SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_VERSION_KEY;
 
 /**
  * <p>
  *  服务实现类
+ *  商铺类型很少变化，每个节点在内存中保存序列化好的响应体，请求直接返回同一个字节数组
+ *  Redis 中保存响应体快照和版本号，定时检查版本号，变化时整体替换本地目录
+ *  应用中没有修改商铺类型的入口，快照过期后从数据库重建；直接修改数据库后删除快照key即可在下次检查时生效
  * </p>
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
+    /**
+     * 重建快照的锁的过期时间，单位秒
+     */
+    private static final long REBUILD_LOCK_TTL = 30;
 
     @Autowired
     RedisService redisService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Qualifier("scheduledExecutorService")
+    @Autowired
+    private ScheduledExecutorService scheduler;
+
+    @Value("${hmdp.shop-type.check-seconds:5}")
+    private long checkSeconds;
+
+    @Value("${hmdp.shop-type.snapshot-ttl-hours:24}")
+    private long snapshotTtlHours;
+
+    /**
+     * 当前的商铺类型目录，创建后不再修改，版本变化时整体替换
+     */
+    private volatile Catalog catalog;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleCatalogCheck() {
+        scheduler.scheduleWithFixedDelay(this::checkCatalog, 0, checkSeconds, TimeUnit.SECONDS);
+    }
+
     @Override
-    public Result queryTypeList() {
-        // 1.从 Redis 中查询商铺缓存
-        Set<String> typeSet = redisService.zrange(SHOP_TYPE_KEY, 0, -1);
-        if (CollectionUtil.isNotEmpty(typeSet)) {
-            List<ShopType> typeList = typeSet.stream().map(s -> JSONUtil.toBean(s, ShopType.class)).collect(Collectors.toList());
-            return Result.ok(typeList);
+    public byte[] queryTypeList() {
+        Catalog current = catalog;
+        if (current == null) {
+            // 启动后首次检查完成前
+            checkCatalog();
+            current = catalog;
+        }
+        return current.body;
+    }
+
+    /**
+     * 一次往返读取版本号和快照，版本号未变化时不做任何事
+     */
+    private synchronized void checkCatalog() {
+        try {
+            List<Object> results = redisService.pipelined(pipeline -> pipeline.get(SHOP_TYPE_VERSION_KEY).get(SHOP_TYPE_KEY));
+            String version = (String) results.get(0);
+            String body = (String) results.get(1);
+            Catalog current = catalog;
+            if (body == null) {
+                // 1.快照不存在或已过期，只有拿到锁的节点从数据库重建，其他节点等下次检查时加载新快照
+                rebuildWithLock(current);
+            } else if (current == null || !Objects.equals(version, current.version)) {
+                // 2.版本号变化，加载新快照
+                catalog = new Catalog(version, body.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (Exception e) {
+            log.error("商铺类型目录刷新失败", e);
+            if (catalog == null) {
+                // 3.Redis 不可用且本地没有目录，直接使用数据库
+                catalog = new Catalog(null, serialize(queryTypes()));
+            }
         }
-        // 2.若 Redis 中无该数据的缓存，则查询数据库
-        List<ShopType> typeList = query().orderByAsc("sort").list();
+    }
 
-        // 3.判断数据库中是否存在
-        if (CollectionUtil.isEmpty(typeList)) {
-            // 3.1.数据库中也不存在，则返回 false
-            return Result.fail("分类不存在！");
+    private void rebuildWithLock(Catalog current) {
+        String token = UUIDUtil.getUUID();
+        if (!Boolean.TRUE.equals(redisService.setIfNotExist(LOCK_SHOP_TYPE_KEY, token, REBUILD_LOCK_TTL, TimeUnit.SECONDS))) {
+            if (current == null) {
+                // 本地还没有目录，先直接使用数据库，不写入快照
+                catalog = new Catalog(null, serialize(queryTypes()));
+            }
+            return;
         }
-        // 3.2.数据库中存在，则将查询到的信息存入 Redis
-        for (ShopType type : typeList) {
-            redisService.zadd(SHOP_TYPE_KEY,JSONUtil.toJsonStr(type),type.getSort());
+        try {
+            catalog = rebuildSnapshot();
+        } finally {
+            redisService.unlock(LOCK_SHOP_TYPE_KEY, token);
+        }
+    }
+
+    /**
+     * 从数据库重建快照：先写入临时key，再在 MULTI 中 RENAME 覆盖快照并递增版本号，其他节点不会读到写了一半的快照
+     */
+    private Catalog rebuildSnapshot() {
+        List<ShopType> types = queryTypes();
+        byte[] body = serialize(types);
+        if (types.isEmpty()) {
+            // 数据库中也不存在，不写入快照
+            return new Catalog(null, body);
+        }
+        String tmpKey = SHOP_TYPE_KEY + ":tmp:" + UUIDUtil.getUUID();
+        redisService.set(tmpKey, new String(body, StandardCharsets.UTF_8), snapshotTtlHours, TimeUnit.HOURS);
+        List<Object> results = redisService.transaction(pipeline -> pipeline
+                .rename(tmpKey, SHOP_TYPE_KEY)
+                .increment(SHOP_TYPE_VERSION_KEY, 1));
+        Object version = results == null || results.size() < 2 ? null : results.get(1);
+        return new Catalog(version == null ? null : version.toString(), body);
+    }
+
+    private List<ShopType> queryTypes() {
+        return query().orderByAsc("sort").list();
+    }
+
+    private byte[] serialize(List<ShopType> types) {
+        Result result = types.isEmpty() ? Result.fail("分类不存在！") : Result.ok(types);
+        try {
+            return objectMapper.writeValueAsBytes(result);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Catalog {
+        private final String version;
+        private final byte[] body;
+
+        private Catalog(String version, byte[] body) {
+            this.version = version;
+            this.body = body;
         }
-        return Result.ok(typeList);
     }
 }
@@ -0,0 +1,198 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SignCountDTO;
+import com.hmdp.entity.Sign;
+import com.hmdp.entity.User;
+import com.hmdp.mapper.SignMapper;
+import com.hmdp.service.ISignService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisService;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SIGN_ARCHIVED_KEY;
+import static com.hmdp.utils.RedisConstants.USER_SIGN_KEY;
+
+/**
+ * <p>
+ * 签到服务实现类
+ * 当月签到保存在 Redis 位图 sign:userId:yyyyMM 中，第 n 天对应偏移量 n-1，每个用户每月最多 4 字节
+ * 上个月的位图在月初由归档任务转存到 tb_sign 后删除
+ * </p>
+ */
+@Slf4j
+@Service
+public class SignServiceImpl extends ServiceImpl<SignMapper, Sign> implements ISignService {
+
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    /**
+     * 归档时每批读取的用户数量
+     */
+    private static final int ARCHIVE_BATCH = 1000;
+    /**
+     * 归档任务锁的过期时间，单位分钟
+     */
+    private static final long ARCHIVE_LOCK_TTL = 30;
+
+    @Autowired
+    private RedisService redisService;
+
+    @Resource
+    private IUserService userService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Qualifier("scheduledExecutorService")
+    @Autowired
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 检查并归档上月签到的间隔
+     */
+    @Value("${hmdp.sign.archive-interval-hours:24}")
+    private long archiveIntervalHours;
+
+    @Override
+    public Result sign() {
+        // 1.获取当前登录用户和日期
+        Long userId = UserHolder.getUser().getId();
+        LocalDate now = LocalDate.now();
+        // 2.写入 Redis SETBIT key offset 1
+        redisService.setBit(signKey(userId, YearMonth.from(now)), now.getDayOfMonth() - 1, true);
+        return Result.ok();
+    }
+
+    @Override
+    public Result signCount() {
+        // 1.获取当前登录用户和日期
+        Long userId = UserHolder.getUser().getId();
+        LocalDate now = LocalDate.now();
+        int dayOfMonth = now.getDayOfMonth();
+        // 2.一次往返获取本月截止今天的签到记录和本月签到总数 BITFIELD key GET u[dayOfMonth] 0 + BITCOUNT key
+        long[] result = redisService.bitFieldAndCount(signKey(userId, YearMonth.from(now)), dayOfMonth);
+        // 3.今天对应最低位，从低位开始统计连续的 1
+        SignCountDTO dto = new SignCountDTO();
+        dto.setStreak(streak(result[0]));
+        dto.setTotal(result[1]);
+        return Result.ok(dto);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleArchive() {
+        scheduler.scheduleWithFixedDelay(this::archiveLastMonth, 0, archiveIntervalHours, TimeUnit.HOURS);
+    }
+
+    private void archiveLastMonth() {
+        YearMonth month = YearMonth.now().minusMonths(1);
+        String archivedKey = SIGN_ARCHIVED_KEY + month.format(MONTH_FORMAT);
+        // 标记同时作为锁，多个节点只有一个节点归档，归档完成后不再重复
+        if (!Boolean.TRUE.equals(redisService.setIfNotExist(archivedKey, "0", ARCHIVE_LOCK_TTL, TimeUnit.MINUTES))) {
+            return;
+        }
+        try {
+            long lastId = 0;
+            long rows = 0;
+            while (true) {
+                List<User> users = userService.query().select("id").gt("id", lastId).orderByAsc("id")
+                        .last("limit " + ARCHIVE_BATCH).list();
+                if (users.isEmpty()) {
+                    break;
+                }
+                // 1.每批一次 MGET 读取位图
+                List<String> keys = new ArrayList<>(users.size());
+                for (User user : users) {
+                    keys.add(signKey(user.getId(), month));
+                }
+                List<byte[]> bitmaps = redisService.multiGetBytes(keys);
+                // 2.展开为签到记录
+                List<Sign> signs = new ArrayList<>();
+                List<Long> archivedUsers = new ArrayList<>();
+                List<String> archived = new ArrayList<>();
+                for (int i = 0; i < users.size(); i++) {
+                    byte[] bitmap = bitmaps == null ? null : bitmaps.get(i);
+                    if (bitmap == null) {
+                        continue;
+                    }
+                    for (int day : signedDays(bitmap, month.lengthOfMonth())) {
+                        signs.add(new Sign()
+                                .setUserId(users.get(i).getId())
+                                .setYear(month.getYear())
+                                .setMonth(month.getMonthValue())
+                                .setDate(month.atDay(day))
+                                .setIsBackup(false));
+                    }
+                    archivedUsers.add(users.get(i).getId());
+                    archived.add(keys.get(i));
+                }
+                if (!archived.isEmpty()) {
+                    // 3.同一事务中先删除这些用户当月已归档的记录再写入，上次写入后未删除位图就中断时重跑不会重复
+                    transactionTemplate.executeWithoutResult(status -> {
+                        update().in("user_id", archivedUsers)
+                                .eq("year", month.getYear())
+                                .eq("month", month.getMonthValue())
+                                .remove();
+                        if (!signs.isEmpty()) {
+                            saveBatch(signs);
+                        }
+                    });
+                    rows += signs.size();
+                    // 4.写入成功后删除位图
+                    redisService.delete(archived);
+                }
+                if (users.size() < ARCHIVE_BATCH) {
+                    break;
+                }
+                lastId = users.get(users.size() - 1).getId();
+            }
+            redisService.set(archivedKey, "1");
+            log.info("{} 签到归档完成，共 {} 条", month, rows);
+        } catch (Exception e) {
+            log.error("{} 签到归档失败", month, e);
+            redisService.delete(archivedKey);
+        }
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMAT);
+    }
+
+    /**
+     * 从最低位（今天）开始统计连续为 1 的位数
+     */
+    static int streak(long bits) {
+        return Long.numberOfTrailingZeros(~bits);
+    }
+
+    /**
+     * 位图中为 1 的日期，偏移量 0 为每月 1 号，对应第一个字节的最高位
+     */
+    static List<Integer> signedDays(byte[] bitmap, int lengthOfMonth) {
+        List<Integer> days = new ArrayList<>();
+        for (int day = 1; day <= lengthOfMonth && (day - 1) / 8 < bitmap.length; day++) {
+            int offset = day - 1;
+            if ((bitmap[offset / 8] & (0x80 >>> (offset % 8))) != 0) {
+                days.add(day);
+            }
+        }
+        return days;
+    }
+}
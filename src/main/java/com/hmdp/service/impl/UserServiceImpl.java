@@ -3,6 +3,7 @@ package com.hmdp.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
@@ -12,16 +13,18 @@ import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.RedisService;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SessionCache;
 import com.hmdp.utils.UUIDUtil;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
 import javax.servlet.http.HttpSession;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -42,6 +45,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Autowired
     RedisService redisService;
 
+    @Autowired
+    private SessionCache sessionCache;
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         if (RegexUtils.isPhoneInvalid(phone)) { return Result.fail("手机号格式错误！"); }
@@ -73,11 +79,87 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
                         .setIgnoreNullValue(true)
                         .setFieldValueEditor((fName, fValue) -> fValue.toString())
                 );
-        redisService.hset(LOGIN_USER_KEY + token,userMap);
-        redisService.setExpire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        // 写入用户信息、过期时间和用户的 token 索引在同一次往返中完成
+        String tokenKey = LOGIN_USER_KEY + token;
+        String tokensKey = LOGIN_USER_TOKENS_KEY + user.getId();
+        redisService.pipelined(pipeline -> pipeline
+                .hset(tokenKey, userMap)
+                .expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES)
+                .sadd(tokensKey, token)
+                .expire(tokensKey, LOGIN_USER_TTL, TimeUnit.MINUTES));
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        // 1.删除 token 并从用户的 token 索引中移除
+        Long userId = UserHolder.getUser().getId();
+        redisService.pipelined(pipeline -> pipeline
+                .delete(LOGIN_USER_KEY + token)
+                .srem(LOGIN_USER_TOKENS_KEY + userId, token));
+        // 2.通知所有节点清除本地缓存
+        sessionCache.invalidate(token);
+        return Result.ok();
+    }
+
+    @Override
+    public Result logoutAll() {
+        // 1.查询用户的所有 token
+        Long userId = UserHolder.getUser().getId();
+        String tokensKey = LOGIN_USER_TOKENS_KEY + userId;
+        Set<String> tokens = redisService.members(tokensKey);
+        // 2.一次 pipeline 删除所有 token 和索引，已过期的 token 删除时不生效
+        redisService.pipelined(pipeline -> {
+            if (tokens != null) {
+                tokens.forEach(token -> pipeline.delete(LOGIN_USER_KEY + token));
+            }
+            pipeline.delete(tokensKey);
+        });
+        // 3.通知所有节点清除该用户的本地缓存
+        sessionCache.invalidateUser(userId);
+        return Result.ok();
+    }
+
+    @Override
+    public Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids) {
+        Map<Long, UserDTO> users = new HashMap<>(ids.size());
+        if (ids.isEmpty()) {
+            return users;
+        }
+        // 1.一次 MGET 批量查询缓存
+        List<Long> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<String> cached = redisService.multiGet(idList.stream().map(id -> CACHE_USER_KEY + id).collect(Collectors.toList()));
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++) {
+            String json = cached == null ? null : cached.get(i);
+            if (json == null) {
+                missing.add(idList.get(i));
+            } else if (!json.isEmpty()) {
+                users.put(idList.get(i), JSONUtil.toBean(json, UserDTO.class));
+            }
+        }
+        if (missing.isEmpty()) {
+            return users;
+        }
+        // 2.未命中的用户一次查询数据库
+        Map<String, String> found = new HashMap<>(missing.size());
+        for (User user : listByIds(missing)) {
+            UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
+            users.put(user.getId(), userDTO);
+            found.put(CACHE_USER_KEY + user.getId(), JSONUtil.toJsonStr(userDTO));
+        }
+        // 3.批量写回缓存，不存在的用户缓存空值
+        Map<String, String> absent = new HashMap<>();
+        missing.stream().filter(id -> !users.containsKey(id)).forEach(id -> absent.put(CACHE_USER_KEY + id, ""));
+        if (!found.isEmpty()) {
+            redisService.multiSet(found, CACHE_USER_TTL, TimeUnit.MINUTES);
+        }
+        if (!absent.isEmpty()) {
+            redisService.multiSet(absent, CACHE_NULL_TTL, TimeUnit.MINUTES);
+        }
+        return users;
+    }
+
     public User createUserWithPhone(String phone) {
         User user = new User();
         user.setPhone(phone);
@@ -1,10 +1,51 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisService;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.Threads;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -14,7 +55,348 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
+    /**
+     * 每次从消息队列读取并写入数据库的最大订单数
+     */
+    private static final int ORDER_BATCH_SIZE = 100;
+    /**
+     * 本地缓存秒杀时间窗口的有效期，修改活动时间后最多延迟这么久生效
+     */
+    private static final long VOUCHER_LOCAL_TTL_SECONDS = 60;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    @Autowired
+    private RedisService redisService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Qualifier("seckillOrderExecutor")
+    @Autowired
+    private ThreadPoolTaskExecutor seckillOrderExecutor;
+
+    @Value("${hmdp.seckill.order-consumers:4}")
+    private int consumers;
+
+    /**
+     * 其他消费者的 pending 消息空闲超过该时间后由本节点接管，需大于正常处理一批订单的耗时
+     */
+    @Value("${hmdp.seckill.pending-claim-idle-seconds:300}")
+    private long claimIdleSeconds;
+
+    @Autowired
+    private RedisIdWorker redisIdWorker;
+
+    @Autowired
+    private SeckillStockShards seckillStockShards;
+
+    private volatile boolean running = true;
+
+    /**
+     * 本节点缓存的秒杀活动时间窗口，不存在的优惠券缓存为 Optional.empty()
+     */
+    private final Cache<Long, Optional<SeckillVoucher>> voucherCache = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(VOUCHER_LOCAL_TTL_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * 已售罄的优惠券和活动结束时间（毫秒时间戳），售罄后的请求直接在本地拒绝，不再访问 Redis
+     * 标记在活动结束时自动移除，重新预热库存时清除
+     */
+    private final Cache<Long, Long> soldOut = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfter(new Expiry<Long, Long>() {
+                @Override
+                public long expireAfterCreate(Long voucherId, Long endTime, long currentTime) {
+                    return TimeUnit.MILLISECONDS.toNanos(Math.max(endTime - System.currentTimeMillis(), 0));
+                }
+
+                @Override
+                public long expireAfterUpdate(Long voucherId, Long endTime, long currentTime, long currentDuration) {
+                    return expireAfterCreate(voucherId, endTime, currentTime);
+                }
+
+                @Override
+                public long expireAfterRead(Long voucherId, Long endTime, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .build();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribeSoldOut() {
+        // 任意节点发现售罄后，所有节点标记售罄，消息格式为 优惠券id:活动结束时间
+        redisService.subscribe(SECKILL_SOLD_OUT_CHANNEL, message -> {
+            String[] parts = message.split(":");
+            soldOut.put(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+        });
+        // 重新预热库存后，所有节点清除售罄标记和活动信息
+        redisService.subscribe(SECKILL_STOCK_RELOAD_CHANNEL, id -> {
+            soldOut.invalidate(Long.parseLong(id));
+            voucherCache.invalidate(Long.parseLong(id));
+        });
+    }
+
+    /**
+     * 应用完全启动后再开始消费，避免在其他 bean 初始化完成前处理订单
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startOrderHandlers() {
+        redisService.createGroupIfAbsent(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP);
+        // 消费者名称在重启后保持不变，才能接管自己 pending list 中的消息；主机名变化后遗留的消息由 claimIdlePending 接管
+        String host = NetUtil.getLocalHostName();
+        for (int i = 0; i < consumers; i++) {
+            String consumer = host + "-" + i;
+            seckillOrderExecutor.execute(() -> handleOrders(consumer));
+        }
+    }
+
+    @PreDestroy
+    public void stopOrderHandlers() {
+        running = false;
+    }
+
+    @Override
+    public Result seckillVoucher(Long voucherId) {
+        // 1.本地判断活动时间和售罄标记，不满足条件的请求不产生任何网络请求
+        SeckillVoucher voucher = voucherCache.get(voucherId,
+                id -> Optional.ofNullable(seckillVoucherService.getById(id))).orElse(null);
+        if (voucher == null) {
+            return Result.fail("优惠券不存在！");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (voucher.getBeginTime().isAfter(now)) {
+            return Result.fail("秒杀尚未开始！");
+        }
+        if (voucher.getEndTime().isBefore(now)) {
+            return Result.fail("秒杀已经结束！");
+        }
+        if (soldOut.getIfPresent(voucherId) != null) {
+            return Result.fail("库存不足");
+        }
+        Long userId = UserHolder.getUser().getId();
+        long orderId = redisIdWorker.nextId("order");
+        // 2.判断库存和一人一单，扣减 Redis 库存并发送订单消息
+        int r = seckillStockShards.enabled()
+                ? seckillSharded(voucherId, userId, orderId)
+                : seckillSingle(voucherId, userId, orderId);
+        if (r == 1) {
+            // 3.库存为0才标记售罄，第一次发现时通知其他节点
+            long endTime = voucher.getEndTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            if (soldOut.asMap().putIfAbsent(voucherId, endTime) == null) {
+                redisService.publish(SECKILL_SOLD_OUT_CHANNEL, voucherId + ":" + endTime);
+            }
+            return Result.fail("库存不足");
+        }
+        if (r == 3) {
+            // 3.1.库存key不存在，可能尚未预热或 Redis 数据丢失，不标记售罄，重新预热后即可恢复
+            log.warn("秒杀库存不存在，优惠券：{}", voucherId);
+            return Result.fail("活动库存未就绪，请稍后再试");
+        }
+        if (r == 4) {
+            // 3.2.订单消息写入失败，库存和下单资格已经归还
+            return Result.fail("下单失败，请稍后再试");
+        }
+        if (r != 0) {
+            // 4.不为0，代表没有购买资格
+            return Result.fail("不能重复下单");
+        }
+        // 5.订单已进入消息队列，由后台消费者异步写入数据库
+        return Result.ok(orderId);
+    }
+
+    private int seckillSingle(Long voucherId, Long userId, long orderId) {
+        // 1.执行 lua 脚本，原子地判断库存、一人一单、扣减库存并发送订单消息
+        Long result = redisService.execute(SECKILL_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, SECKILL_ORDER_STREAM),
+                userId.toString(), voucherId.toString(), String.valueOf(orderId));
+        return result == null ? 3 : result.intValue();
+    }
+
+    private int seckillSharded(Long voucherId, Long userId, long orderId) {
+        // 1.扣减分片库存，分片与订单队列不在同一个哈希槽，不能在同一个脚本中完成
+        int r = seckillStockShards.deduct(voucherId, userId);
+        if (r == 0) {
+            // 1.1.只有抢到库存的请求才会写入订单队列，请求量以库存数为上限
+            Map<String, String> fields = new HashMap<>(4);
+            fields.put("userId", userId.toString());
+            fields.put("voucherId", voucherId.toString());
+            fields.put("id", String.valueOf(orderId));
+            try {
+                redisService.xadd(SECKILL_ORDER_STREAM, fields);
+            } catch (Exception e) {
+                // 1.2.订单消息写入失败，归还库存和下单资格，用户可以重试
+                log.error("秒杀订单消息写入失败，优惠券：{}，用户：{}", voucherId, userId, e);
+                seckillStockShards.release(voucherId, userId);
+                return 4;
+            }
+        }
+        return r;
+    }
+
+    private void handleOrders(String consumer) {
+        // 1.启动时先接管其他消费者遗留的消息，再处理自己未确认的消息
+        claimIdlePending(consumer);
+        handlePendingList(consumer);
+        long nextClaim = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(claimIdleSeconds);
+        while (running) {
+            try {
+                // 1.1.定期接管，运行中的节点下线后，它的消息也能被处理
+                if (System.currentTimeMillis() >= nextClaim) {
+                    nextClaim = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(claimIdleSeconds);
+                    if (claimIdlePending(consumer) > 0) {
+                        handlePendingList(consumer);
+                    }
+                }
+                // 2.读取新消息 XREADGROUP GROUP g1 c1 COUNT 100 BLOCK 2000 STREAMS stream.orders >
+                List<MapRecord<String, Object, Object>> records = redisService.readGroup(
+                        SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, consumer,
+                        ORDER_BATCH_SIZE, Duration.ofSeconds(2), ReadOffset.lastConsumed());
+                if (records.isEmpty()) {
+                    continue;
+                }
+                // 3.写入数据库后确认消息
+                handleRecords(records);
+            } catch (Exception e) {
+                log.error("处理订单异常", e);
+                // 4.出现异常，消息留在 pending list 中，重新处理
+                Threads.sleep(100);
+                handlePendingList(consumer);
+            }
+        }
+    }
+
+    /**
+     * 把其他消费者空闲超过阈值的 pending 消息转移给当前消费者
+     * 节点更换主机名、减少消费者数量或下线后，原消费者名下的消息不会再被读取，需要由存活的消费者接管
+     * 订单按 (userId, voucherId) 去重，原消费者恢复后重复处理也不会重复下单
+     * @return 接管的消息数
+     */
+    private int claimIdlePending(String consumer) {
+        Duration minIdle = Duration.ofSeconds(claimIdleSeconds);
+        int claimed = 0;
+        String start = null;
+        try {
+            while (running) {
+                // 1.分批查询 pending list XPENDING stream.orders g1 start + 100
+                Range<String> range = start == null ? Range.unbounded() : Range.rightUnbounded(Range.Bound.inclusive(start));
+                PendingMessages pending = redisService.pending(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, range, ORDER_BATCH_SIZE);
+                List<RecordId> ids = new ArrayList<>();
+                String last = null;
+                for (PendingMessage message : pending) {
+                    last = message.getIdAsString();
+                    // 2.跳过上一批的最后一条、自己的消息和仍在处理中的消息
+                    if (!last.equals(start) && !consumer.equals(message.getConsumerName())
+                            && message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                        ids.add(message.getId());
+                    }
+                }
+                // 3.转移给当前消费者 XCLAIM stream.orders g1 consumer min-idle id ... JUSTID
+                if (!ids.isEmpty()) {
+                    claimed += redisService.claim(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, consumer, minIdle, ids).size();
+                }
+                if (last == null || last.equals(start) || pending.size() < ORDER_BATCH_SIZE) {
+                    break;
+                }
+                start = last;
+            }
+        } catch (Exception e) {
+            log.error("接管 pending list 订单异常", e);
+        }
+        if (claimed > 0) {
+            log.info("消费者 {} 接管了 {} 条未确认的订单消息", consumer, claimed);
+        }
+        return claimed;
+    }
+
+    private void handlePendingList(String consumer) {
+        while (running) {
+            try {
+                // 读取已投递但未确认的消息 XREADGROUP GROUP g1 c1 COUNT 100 STREAMS stream.orders 0
+                List<MapRecord<String, Object, Object>> records = redisService.readGroup(
+                        SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, consumer,
+                        ORDER_BATCH_SIZE, null, ReadOffset.from("0"));
+                if (records.isEmpty()) {
+                    return;
+                }
+                handleRecords(records);
+            } catch (Exception e) {
+                log.error("处理 pending list 订单异常", e);
+                Threads.sleep(100);
+            }
+        }
+    }
+
+    private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+        List<VoucherOrder> orders = records.stream()
+                .map(record -> BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true))
+                .collect(Collectors.toList());
+        try {
+            createVoucherOrders(orders);
+        } catch (DuplicateKeyException e) {
+            // 去重查询之后其他消费者提交了相同的订单，例如被接管的消息原消费者也在处理
+            // 唯一索引拒绝了重复订单，事务整体回滚，重新去重后只写入剩余的订单
+            log.info("订单已被其他消费者写入，重新去重后保存");
+            createVoucherOrders(orders);
+        }
+        RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        redisService.ack(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, ids);
+    }
+
+    private void createVoucherOrders(List<VoucherOrder> orders) {
+        transactionTemplate.executeWithoutResult(status -> {
+            // 1.按 (userId, voucherId) 去重，消息至少投递一次，重复投递的订单已经写入过数据库
+            List<VoucherOrder> newOrders = filterExistingOrders(orders);
+            if (newOrders.isEmpty()) {
+                return;
+            }
+            // 2.批量保存订单
+            saveBatch(newOrders);
+            // 3.按优惠券合并扣减库存
+            Map<Long, Long> countByVoucher = newOrders.stream()
+                    .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+            countByVoucher.forEach((voucherId, count) -> {
+                boolean success = seckillVoucherService.update()
+                        .setSql("stock = stock - " + count)
+                        .eq("voucher_id", voucherId)
+                        .ge("stock", count)
+                        .update();
+                if (!success) {
+                    // Redis 已保证不超卖，数据库库存不足说明两边数据不一致
+                    log.error("数据库库存不足，优惠券：{}，扣减数量：{}", voucherId, count);
+                }
+            });
+        });
+    }
 
+    private List<VoucherOrder> filterExistingOrders(List<VoucherOrder> orders) {
+        Set<Long> userIds = orders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> voucherIds = orders.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        Set<String> existing = query().select("user_id", "voucher_id")
+                .in("user_id", userIds).in("voucher_id", voucherIds).list()
+                .stream().map(o -> o.getUserId() + ":" + o.getVoucherId())
+                .collect(Collectors.toSet());
+        List<VoucherOrder> newOrders = new ArrayList<>(orders.size());
+        for (VoucherOrder order : orders) {
+            // 同一批次内也可能有重复消息
+            if (existing.add(order.getUserId() + ":" + order.getVoucherId())) {
+                newOrders.add(order);
+            }
+        }
+        return newOrders;
+    }
 }
@@ -7,6 +7,8 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.Transactions;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -27,6 +29,9 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -47,5 +52,20 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        // 事务提交后把库存预热到 Redis，秒杀时在 Redis 中扣减
+        Transactions.afterCommit(() -> seckillStockShards.preload(voucher.getId(), voucher.getStock()));
+    }
+
+    @Override
+    public Result preloadSeckillStock(Long voucherId) {
+        // 1.查询数据库中的剩余库存
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        if (seckillVoucher == null) {
+            return Result.fail("优惠券不存在！");
+        }
+        // 2.覆盖 Redis 库存并清除各节点的售罄标记
+        // 数据库库存不包含队列中尚未写入的订单，应在订单队列消费完后执行
+        seckillStockShards.preload(voucherId, seckillVoucher.getStock());
+        return Result.ok(seckillVoucher.getStock());
     }
 }
@@ -21,6 +21,10 @@ public class AsyncManager {
         executor.schedule(task, OPERATE_DELAY_TIME, TimeUnit.MILLISECONDS);
     }
 
+    public void schedule(Runnable task, long delay, TimeUnit unit) {
+        executor.schedule(task, delay, unit);
+    }
+
     public void shutdown() {
         Threads.shutdownAndAwaitTermination(executor);
     }
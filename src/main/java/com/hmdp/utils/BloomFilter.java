@@ -0,0 +1,139 @@
+package com.hmdp.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 基于 long 型id的布隆过滤器，线程安全
+ * 位的排列方式与 Redis 的 SETBIT 一致（每个字节高位在前），
+ * 本地位图可以直接和 Redis 中的 bitmap 互相导入导出
+ */
+public class BloomFilter {
+    private final long numBits;
+    private final int numHashes;
+    private final AtomicLongArray words;
+
+    /**
+     * @param expectedInsertions 预计插入的元素个数
+     * @param fpp 期望的误判率
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long bits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        // 按 64 位对齐
+        this.numBits = Math.max(64, (bits + 63) & ~63L);
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        this.words = new AtomicLongArray((int) (numBits >>> 6));
+    }
+
+    public boolean mightContain(long value) {
+        long h1 = mix(value);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < numHashes; i++) {
+            long offset = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            if ((words.get((int) (offset >>> 6)) & mask(offset)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 写入本地位图，并返回需要同步到 Redis 的位偏移量
+     */
+    public long[] put(long value) {
+        long[] offsets = offsets(value);
+        for (long offset : offsets) {
+            setBit(offset);
+        }
+        return offsets;
+    }
+
+    public long[] offsets(long value) {
+        long h1 = mix(value);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        long[] offsets = new long[numHashes];
+        for (int i = 0; i < numHashes; i++) {
+            offsets[i] = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+        }
+        return offsets;
+    }
+
+    /**
+     * 把 Redis 中的 bitmap 合并到本地位图（按位或）
+     */
+    public void merge(byte[] bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bitmap);
+        for (int i = 0; i < words.length() && buffer.hasRemaining(); i++) {
+            long word;
+            if (buffer.remaining() >= Long.BYTES) {
+                word = buffer.getLong();
+            } else {
+                // Redis 的 bitmap 只会增长到最高的已置位字节，末尾不足 8 字节按 0 补齐
+                word = 0;
+                int shift = 56;
+                while (buffer.hasRemaining()) {
+                    word |= (buffer.get() & 0xFFL) << shift;
+                    shift -= 8;
+                }
+            }
+            if (word != 0) {
+                orWord(i, word);
+            }
+        }
+    }
+
+    /**
+     * 导出为 Redis bitmap 格式的字节数组
+     */
+    public byte[] toByteArray() {
+        ByteBuffer buffer = ByteBuffer.allocate(words.length() * Long.BYTES);
+        for (int i = 0; i < words.length(); i++) {
+            buffer.putLong(words.get(i));
+        }
+        return buffer.array();
+    }
+
+    public long bitSize() {
+        return numBits;
+    }
+
+    public int hashCount() {
+        return numHashes;
+    }
+
+    private void setBit(long offset) {
+        orWord((int) (offset >>> 6), mask(offset));
+    }
+
+    private void orWord(int index, long bits) {
+        long old;
+        do {
+            old = words.get(index);
+            if ((old | bits) == old) {
+                return;
+            }
+        } while (!words.compareAndSet(index, old, old | bits));
+    }
+
+    /**
+     * 偏移量 0 对应字的最高位，与 Redis 的位序保持一致
+     */
+    private static long mask(long offset) {
+        return 1L << (63 - (offset & 63));
+    }
+
+    /**
+     * MurmurHash3 的 fmix64
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,267 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+
+/**
+ * 缓存工具类，解决热点key过期后的缓存击穿问题
+ * 1. 同一个JVM内，同一个key的并发回源合并为一个Future（single-flight）
+ * 2. 跨节点使用 Redis SETNX 互斥锁，保证每次过期整个集群只回源一次
+ * 3. 数据库中不存在的数据缓存空值，防止缓存穿透
+ * 4. 过期时间带随机抖动，防止缓存雪崩
+ */
+@Slf4j
+@Component
+public class CacheClient {
+    /**
+     * 等待锁的退避时间区间和最长等待时间，单位毫秒
+     */
+    private static final long MIN_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 200;
+    private static final long MAX_WAIT_MILLIS = 3000;
+
+    @Autowired
+    private RedisService redisService;
+
+    @Qualifier("threadPoolTaskExecutor")
+    @Autowired
+    private ThreadPoolTaskExecutor executor;
+
+    /**
+     * 正在回源的key，同一个key的并发请求共享同一个Future
+     */
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 按key前缀统计的 Redis 命中次数，下标 0 为命中，1 为未命中
+     */
+    private final ConcurrentMap<String, LongAdder[]> hitCounters = new ConcurrentHashMap<>();
+
+    public void set(String key, Object value, Long time, TimeUnit unit) {
+        redisService.set(key, JSONUtil.toJsonStr(value), jitter(unit.toSeconds(time)), TimeUnit.SECONDS);
+    }
+
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(jitter(unit.toSeconds(time))));
+        redisService.set(key, JSONUtil.toJsonStr(redisData));
+    }
+
+    /**
+     * 在过期时间上增加最多 10% 的随机抖动，避免同时写入的key同时过期造成缓存雪崩
+     */
+    private static long jitter(long seconds) {
+        return seconds + RandomUtil.randomLong(seconds / 10 + 1);
+    }
+
+    /**
+     * 互斥锁方式查询，缓存带 TTL，过期后由单个线程回源
+     * @param lockTtl 互斥锁的过期时间，单位秒，防止持锁节点宕机后死锁
+     */
+    public <R, ID> R queryWithMutex(String keyPrefix, String lockKeyPrefix, Long lockTtl, ID id, Class<R> type,
+                                    Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 1.从 Redis 中查询缓存
+        String json = redisService.get(key);
+        recordHit(keyPrefix, json != null);
+        if (StringUtils.isNotEmpty(json)) {
+            return JSONUtil.toBean(json, type);
+        }
+        // 2.命中空值，说明数据不存在
+        if (json != null) {
+            return null;
+        }
+        // 3.未命中，合并本JVM内的并发回源
+        return singleFlight(key, () -> loadWithLock(key, lockKeyPrefix + id, lockTtl,
+                () -> dbFallback.apply(id),
+                value -> set(key, value, time, unit),
+                cached -> JSONUtil.toBean(cached, type)));
+    }
+
+    /**
+     * 逻辑过期方式查询，缓存永不过期，过期后返回旧数据并异步重建
+     * @param lockTtl 互斥锁的过期时间，单位秒，防止持锁节点宕机后死锁
+     */
+    public <R, ID> R queryWithLogicalExpire(String keyPrefix, String lockKeyPrefix, Long lockTtl, ID id, Class<R> type,
+                                            Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 1.从 Redis 中查询缓存
+        String json = redisService.get(key);
+        recordHit(keyPrefix, json != null);
+        // 2.未命中，说明尚未预热，按互斥锁方式回源并写入逻辑过期缓存
+        if (json == null) {
+            return singleFlight(key, () -> loadWithLock(key, lockKeyPrefix + id, lockTtl,
+                    () -> dbFallback.apply(id),
+                    value -> setWithLogicalExpire(key, value, time, unit),
+                    cached -> readLogical(cached, type)));
+        }
+        // 2.1.命中空值，说明数据不存在
+        if (json.isEmpty()) {
+            return null;
+        }
+        // 3.命中，判断是否过期
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+            // 3.1.未过期，直接返回
+            return r;
+        }
+        // 4.已过期，尝试获取互斥锁，只有拿到锁的线程负责重建
+        String lockKey = lockKeyPrefix + id;
+        String token = tryLock(lockKey, lockTtl);
+        if (token != null) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        // 4.1.再次检查，避免锁释放前后重复重建
+                        String latest = redisService.get(key);
+                        if (StringUtils.isNotEmpty(latest)
+                                && JSONUtil.toBean(latest, RedisData.class).getExpireTime().isAfter(LocalDateTime.now())) {
+                            return;
+                        }
+                        R fresh = dbFallback.apply(id);
+                        if (fresh != null) {
+                            setWithLogicalExpire(key, fresh, time, unit);
+                        }
+                    } finally {
+                        unlock(lockKey, token);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 4.2.线程池已满，释放锁，由之后的请求重试重建，本次仍返回旧数据
+                log.warn("缓存重建任务被拒绝，key：{}", key);
+                unlock(lockKey, token);
+            }
+        }
+        // 5.返回过期的数据
+        return r;
+    }
+
+    /**
+     * 查询某个key前缀的 Redis 命中统计
+     */
+    public Map<String, Object> stats(String keyPrefix) {
+        LongAdder[] counter = hitCounters.computeIfAbsent(keyPrefix, k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+        long hits = counter[0].sum();
+        long misses = counter[1].sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hitCount", hits);
+        stats.put("missCount", misses);
+        stats.put("hitRate", hits + misses == 0 ? 1.0 : (double) hits / (hits + misses));
+        return stats;
+    }
+
+    private void recordHit(String keyPrefix, boolean hit) {
+        LongAdder[] counter = hitCounters.computeIfAbsent(keyPrefix, k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+        counter[hit ? 0 : 1].increment();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> R singleFlight(String key, Callable<R> loader) {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            // 其他线程正在回源，等待其结果
+            try {
+                return (R) existing.get(2 * MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("等待缓存重建被中断", e);
+            } catch (ExecutionException | TimeoutException e) {
+                throw new RuntimeException("等待缓存重建失败", e);
+            }
+        }
+        try {
+            R r = loader.call();
+            mine.complete(r);
+            return r;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * 跨节点互斥回源：拿到锁的节点查询数据库并写缓存，其余节点退避后读取缓存
+     */
+    private <R> R loadWithLock(String key, String lockKey, long lockTtl, Callable<R> dbFallback,
+                               Consumer<R> cacheWriter, Function<String, R> parser) throws Exception {
+        long deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (true) {
+            String token = tryLock(lockKey, lockTtl);
+            if (token != null) {
+                try {
+                    // 1.拿到锁后再次检查缓存，可能其他节点刚刚重建完成
+                    String cached = redisService.get(key);
+                    if (cached != null) {
+                        return parse(cached, parser);
+                    }
+                    // 2.查询数据库并写入缓存
+                    R r = dbFallback.call();
+                    if (r == null) {
+                        // 2.1.数据库中不存在，缓存空值，防止缓存穿透
+                        redisService.set(key, "", jitter(TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL)), TimeUnit.SECONDS);
+                    } else {
+                        cacheWriter.accept(r);
+                    }
+                    return r;
+                } finally {
+                    unlock(lockKey, token);
+                }
+            }
+            // 3.未拿到锁，带随机抖动的指数退避后读取缓存
+            Threads.sleep(backoff + RandomUtil.randomLong(backoff));
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            String cached = redisService.get(key);
+            if (cached != null) {
+                return parse(cached, parser);
+            }
+            if (System.currentTimeMillis() > deadline) {
+                // 4.等待超时，持锁节点可能异常，降级直接查询数据库，保证延迟有上限
+                log.warn("等待缓存重建超时，直接查询数据库，key：{}", key);
+                return dbFallback.call();
+            }
+        }
+    }
+
+    private <R> R parse(String cached, Function<String, R> parser) {
+        return cached.isEmpty() ? null : parser.apply(cached);
+    }
+
+    private <R> R readLogical(String json, Class<R> type) {
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        return JSONUtil.toBean((JSONObject) redisData.getData(), type);
+    }
+
+    private String tryLock(String lockKey, long lockTtl) {
+        String token = UUIDUtil.getUUID();
+        boolean locked = Boolean.TRUE.equals(redisService.setIfNotExist(lockKey, token, lockTtl, TimeUnit.SECONDS));
+        return locked ? token : null;
+    }
+
+    private void unlock(String lockKey, String token) {
+        // 只释放自己持有的锁，避免锁超时后误删其他节点的锁
+        redisService.unlock(lockKey, token);
+    }
+}
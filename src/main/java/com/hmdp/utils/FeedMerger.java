@@ -0,0 +1,87 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ScrollResult;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.*;
+
+/**
+ * 关注流多路归并
+ * 推拉结合模式下，读者的关注流由自己的收件箱和所关注大V的发件箱组成，
+ * 每一路都按 ZREVRANGEBYSCORE key max 0 LIMIT 0 offset+count 读取，再按分数归并成一页
+ * 同分数的成员按字典序倒序排列，与 Redis 单个 sorted set 内的顺序一致，保证翻页时偏移量稳定
+ */
+public class FeedMerger {
+
+    private static final Comparator<ZSetOperations.TypedTuple<String>> ORDER =
+            Comparator.<ZSetOperations.TypedTuple<String>>comparingDouble(ZSetOperations.TypedTuple::getScore)
+                    .thenComparing(ZSetOperations.TypedTuple::getValue)
+                    .reversed();
+
+    private FeedMerger() {
+    }
+
+    /**
+     * @param sources 每一路中分数不大于 max 的前 offset+count 个成员，按分数倒序
+     * @param max 上一页的最小时间戳
+     * @param offset 上一页中与最小时间戳相同的成员个数
+     * @return list 为成员列表，minTime、offset 为下一页的查询参数；没有数据时 list 为空
+     */
+    public static ScrollResult merge(List<Set<ZSetOperations.TypedTuple<String>>> sources, long max, int offset, int count) {
+        // 1.每一路的当前元素放入堆中，堆顶为分数最大的元素
+        PriorityQueue<Head> heap = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> ORDER.compare(a.tuple, b.tuple));
+        for (Set<ZSetOperations.TypedTuple<String>> source : sources) {
+            if (source != null && !source.isEmpty()) {
+                Iterator<ZSetOperations.TypedTuple<String>> it = source.iterator();
+                heap.add(new Head(it.next(), it));
+            }
+        }
+        // 2.跳过上一页已经返回的 offset 个元素，再取 count 个
+        List<String> ids = new ArrayList<>(count);
+        long minTime = 0;
+        int os = 1;
+        int skipped = 0;
+        while (!heap.isEmpty() && ids.size() < count) {
+            Head head = heap.poll();
+            ZSetOperations.TypedTuple<String> tuple = head.tuple;
+            if (head.it.hasNext()) {
+                heap.add(new Head(head.it.next(), head.it));
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            ids.add(tuple.getValue());
+            // 3.记录最小时间戳和与其相同的元素个数
+            long time = tuple.getScore().longValue();
+            if (time == minTime) {
+                os++;
+            } else {
+                minTime = time;
+                os = 1;
+            }
+        }
+        ScrollResult r = new ScrollResult();
+        r.setList(ids);
+        if (ids.isEmpty()) {
+            return r;
+        }
+        // 3.1.整页时间戳都与上一页最小值相同，需要累加上一页的偏移量
+        if (minTime == max) {
+            os += offset;
+        }
+        r.setMinTime(minTime);
+        r.setOffset(os);
+        return r;
+    }
+
+    private static class Head {
+        private final ZSetOperations.TypedTuple<String> tuple;
+        private final Iterator<ZSetOperations.TypedTuple<String>> it;
+
+        private Head(ZSetOperations.TypedTuple<String> tuple, Iterator<ZSetOperations.TypedTuple<String>> it) {
+            this.tuple = tuple;
+            this.it = it;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.hmdp.utils;
+
+import org.springframework.util.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+
+public class IpUtils {
+    /**
+     * 获取客户端ip
+     * @param request 请求
+     * @param ipHeader 反向代理传递客户端ip的请求头，为空或请求中没有该头时使用连接的对端地址
+     * @return 客户端ip
+     */
+    public static String getClientIp(HttpServletRequest request, String ipHeader) {
+        String ip = StringUtils.isEmpty(ipHeader) ? null : request.getHeader(ipHeader);
+        return StringUtils.isEmpty(ip) ? request.getRemoteAddr() : ip;
+    }
+}
@@ -0,0 +1,145 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.hmdp.aop.RateLimit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 Redis 的分布式限流，一个请求的全部规则由一次 lua 脚本原子检查和扣减，时间取 Redis 服务器时间
+ * 本地按脚本返回的等待时长记录被拒绝的 key，等待结束前的请求直接拒绝，不访问 Redis：
+ * 其他节点只会向窗口添加请求、从桶中取走令牌，不会让 key 提前恢复，所以本地拒绝不会误伤
+ */
+@Component
+public class RateLimiter {
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> RATE_LIMIT_SCRIPT;
+
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(List.class);
+    }
+
+    @Autowired
+    private RedisService redisService;
+
+    @Value("${hmdp.rate-limit.local-maximum-size:100000}")
+    private long localMaximumSize;
+
+    /**
+     * 被拒绝的 key 和恢复时间（System.nanoTime），到恢复时间后自动移除
+     * 只用本地单调时钟计算时长，不依赖各节点时钟一致
+     */
+    private Cache<String, Long> blocked;
+
+    @PostConstruct
+    public void createCache() {
+        blocked = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfter(new Expiry<String, Long>() {
+                    @Override
+                    public long expireAfterCreate(String key, Long until, long currentTime) {
+                        return Math.max(until - System.nanoTime(), 0);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Long until, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, until, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Long until, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * 尝试获取一次许可
+     * @param key 限流key，不含 limit: 前缀
+     * @return 0 表示放行，否则为需要等待的毫秒数
+     */
+    public long tryAcquire(String key, RateLimit rule) {
+        Rejection rejection = tryAcquire(Collections.singletonList(key), Collections.singletonList(rule));
+        return rejection == null ? 0 : rejection.getWait();
+    }
+
+    /**
+     * 一次检查多条规则，全部满足才放行并同时消耗每条规则的许可，任意一条被拒绝时不消耗任何许可
+     * 一个请求只访问一次 Redis，不会出现前面的规则已扣减、后面的规则拒绝的情况
+     * @param keys 每条规则的限流key，不含 limit: 前缀
+     * @return null 表示放行，否则为被拒绝的规则和需要等待的毫秒数
+     */
+    public Rejection tryAcquire(List<String> keys, List<RateLimit> rules) {
+        // 1.本地已记录被拒绝且未到恢复时间，直接拒绝
+        long now = System.nanoTime();
+        for (int i = 0; i < keys.size(); i++) {
+            Long until = blocked.getIfPresent(keys.get(i));
+            if (until != null && until > now) {
+                return new Rejection(i, Math.max(TimeUnit.NANOSECONDS.toMillis(until - now), 1));
+            }
+        }
+        // 2.执行限流脚本，每条规则 3 个参数
+        List<String> redisKeys = new ArrayList<>(keys.size());
+        List<String> args = new ArrayList<>(1 + rules.size() * 3);
+        args.add(Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        for (int i = 0; i < keys.size(); i++) {
+            RateLimit rule = rules.get(i);
+            redisKeys.add(RedisConstants.RATE_LIMIT_KEY + keys.get(i));
+            long periodMillis = rule.unit().toMillis(rule.period());
+            if (rule.algorithm() == RateLimit.Algorithm.TOKEN_BUCKET) {
+                args.add("bucket");
+                args.add(String.valueOf(rule.permits()));
+                args.add(String.valueOf((double) periodMillis / rule.permits()));
+            } else {
+                args.add("window");
+                args.add(String.valueOf(periodMillis));
+                args.add(String.valueOf(rule.permits()));
+            }
+        }
+        List<?> result = redisService.execute(RATE_LIMIT_SCRIPT, redisKeys, args.toArray());
+        if (result == null || result.size() < 2 || ((Number) result.get(1)).longValue() <= 0) {
+            return null;
+        }
+        // 3.被拒绝，按脚本返回的等待时长记录该规则的恢复时间
+        int index = ((Number) result.get(0)).intValue();
+        long wait = ((Number) result.get(1)).longValue();
+        blocked.put(keys.get(index), now + TimeUnit.MILLISECONDS.toNanos(wait));
+        return new Rejection(index, wait);
+    }
+
+    /**
+     * 被拒绝的规则下标和需要等待的毫秒数
+     */
+    public static class Rejection {
+        private final int index;
+        private final long wait;
+
+        public Rejection(int index, long wait) {
+            this.index = index;
+            this.wait = wait;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public long getWait() {
+            return wait;
+        }
+    }
+}
@@ -5,21 +5,52 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final String LOGIN_USER_TOKENS_KEY = "login:tokens:";
+    public static final String LOGIN_INVALIDATE_CHANNEL = "login:invalidate";
+    public static final String RATE_LIMIT_KEY = "limit:";
 
 
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String SHOP_CACHE_CHANNEL = "cache:shop:invalidate";
+    public static final String SHOP_BLOOM_KEY = "bloom:shop";
+    public static final String SHOP_BLOOM_CHANNEL = "bloom:shop:add";
 
-    public static final String SHOP_TYPE_KEY = "shop:type:";
+    public static final String SHOP_TYPE_KEY = "shop:type:{catalog}";
+    public static final String SHOP_TYPE_VERSION_KEY = "shop:type:{catalog}:version";
+    public static final String LOCK_SHOP_TYPE_KEY = "lock:shop:type:catalog";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
+    public static final String ID_COUNTER_KEY = "icr:";
+
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_STOCK_RELOAD_CHANNEL = "seckill:stock:reload";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_DELTA_KEY = "blog:liked:{delta}";
+    public static final String BLOG_LIKED_DELTA_FLUSHING_KEY = "blog:liked:{delta}:flushing";
+    public static final String LOCK_BLOG_LIKED_FLUSH_KEY = "lock:blog:liked:flush";
+    public static final String BLOG_HOT_KEY = "blog:{hot}";
+    public static final String LOCK_BLOG_HOT_RECONCILE_KEY = "lock:blog:hot:reconcile";
+    public static final String FOLLOW_KEY = "follows:";
+    public static final String FOLLOW_WARMED_KEY = "follows:warmed:v2";
+    public static final String FOLLOWER_KEY = "followers:";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:out:";
+    public static final String FEED_CELEBRITY_KEY = "feed:celebrities";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_LOADED_KEY = "shop:geo:loaded";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String SIGN_ARCHIVED_KEY = "sign:archived:";
+    public static final String UV_KEY = "uv:";
 }
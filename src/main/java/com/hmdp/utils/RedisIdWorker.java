@@ -0,0 +1,87 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.ID_COUNTER_KEY;
+
+/**
+ * 全局唯一id生成器
+ * id 为 64 位：1 位符号位 + 31 位秒级时间戳 + 32 位当天序列号
+ * 序列号来自 Redis 中按天自增的计数器，每次预取一段，大部分id在内存中分配
+ */
+@Component
+public class RedisIdWorker {
+    /**
+     * 开始时间戳 2022-01-01 00:00:00 UTC
+     */
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+    /**
+     * 序列号的位数
+     */
+    private static final int COUNT_BITS = 32;
+    /**
+     * 每次从 Redis 预取的序列号个数
+     */
+    private static final long SEGMENT_SIZE = 1000;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    @Autowired
+    private RedisService redisService;
+
+    /**
+     * 各业务当前使用的号段
+     */
+    private final ConcurrentMap<String, Segment> segments = new ConcurrentHashMap<>();
+
+    public long nextId(String keyPrefix) {
+        while (true) {
+            long nowSecond = System.currentTimeMillis() / 1000;
+            Segment segment = segments.get(keyPrefix);
+            // 1.号段属于今天且未用完，直接在内存中分配
+            if (segment != null && nowSecond < segment.dayEnd) {
+                long sequence = segment.next.getAndIncrement();
+                if (sequence <= segment.max) {
+                    return (nowSecond - BEGIN_TIMESTAMP) << COUNT_BITS | sequence;
+                }
+            }
+            // 2.号段用完或跨天，从 Redis 预取新号段
+            refill(keyPrefix, segment);
+        }
+    }
+
+    private void refill(String keyPrefix, Segment current) {
+        synchronized (segments) {
+            // 其他线程已经换过号段
+            if (segments.get(keyPrefix) != current) {
+                return;
+            }
+            LocalDate today = LocalDate.now();
+            ZoneId zone = ZoneId.systemDefault();
+            long dayEnd = today.plusDays(1).atStartOfDay(zone).toEpochSecond();
+            // 序列号按天隔离，跨天的号段不能继续使用，否则会和新一天的序列号重复
+            String key = ID_COUNTER_KEY + keyPrefix + ":" + today.format(DATE_FORMATTER);
+            long max = redisService.increment(key, SEGMENT_SIZE);
+            segments.put(keyPrefix, new Segment(max - SEGMENT_SIZE + 1, max, dayEnd));
+        }
+    }
+
+    private static class Segment {
+        private final AtomicLong next;
+        private final long max;
+        private final long dayEnd;
+
+        private Segment(long first, long max, long dayEnd) {
+            this.next = new AtomicLong(first);
+            this.max = max;
+            this.dayEnd = dayEnd;
+        }
+    }
+}
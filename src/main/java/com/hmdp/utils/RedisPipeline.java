@@ -0,0 +1,139 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * pipeline 命令构建器，由 {@link RedisService#pipelined} 和 {@link RedisService#transaction} 创建
+ * 添加的命令在同一个连接上执行，结果按添加顺序返回，pipeline 的字符串结果已经反序列化
+ */
+public class RedisPipeline {
+
+    private final RedisConnection connection;
+
+    RedisPipeline(RedisConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * String
+     */
+    public RedisPipeline get(String key) {
+        connection.get(raw(key));
+        return this;
+    }
+
+    public RedisPipeline set(String key, String value) {
+        connection.set(raw(key), raw(value));
+        return this;
+    }
+
+    public RedisPipeline set(String key, String value, long timeout, TimeUnit unit) {
+        connection.set(raw(key), raw(value), Expiration.from(timeout, unit), RedisStringCommands.SetOption.upsert());
+        return this;
+    }
+
+    public RedisPipeline increment(String key, long delta) {
+        connection.incrBy(raw(key), delta);
+        return this;
+    }
+
+    /**
+     * key
+     */
+    public RedisPipeline expire(String key, long timeout, TimeUnit unit) {
+        connection.pExpire(raw(key), unit.toMillis(timeout));
+        return this;
+    }
+
+    public RedisPipeline rename(String oldKey, String newKey) {
+        connection.rename(raw(oldKey), raw(newKey));
+        return this;
+    }
+
+    public RedisPipeline pttl(String key) {
+        connection.pTtl(raw(key));
+        return this;
+    }
+
+    public RedisPipeline delete(String... keys) {
+        connection.del(raw(keys));
+        return this;
+    }
+
+    /**
+     * hash
+     */
+    public RedisPipeline hset(String key, Map<String, ?> map) {
+        Map<byte[], byte[]> hashes = new HashMap<>(map.size());
+        map.forEach((field, value) -> hashes.put(raw(field), raw(String.valueOf(value))));
+        connection.hMSet(raw(key), hashes);
+        return this;
+    }
+
+    public RedisPipeline hgetAll(String key) {
+        connection.hGetAll(raw(key));
+        return this;
+    }
+
+    /**
+     * set
+     */
+    public RedisPipeline sadd(String key, String... members) {
+        byte[][] rawMembers = new byte[members.length][];
+        for (int i = 0; i < members.length; i++) {
+            rawMembers[i] = raw(members[i]);
+        }
+        connection.sAdd(raw(key), rawMembers);
+        return this;
+    }
+
+    public RedisPipeline srem(String key, String... members) {
+        byte[][] rawMembers = new byte[members.length][];
+        for (int i = 0; i < members.length; i++) {
+            rawMembers[i] = raw(members[i]);
+        }
+        connection.sRem(raw(key), rawMembers);
+        return this;
+    }
+
+    /**
+     * zset
+     */
+    public RedisPipeline zadd(String key, String value, double score) {
+        connection.zAdd(raw(key), score, raw(value));
+        return this;
+    }
+
+    /**
+     * ZUNIONSTORE destKey n key... WEIGHTS weight...，分数按权重求和
+     */
+    public RedisPipeline zunionstore(String destKey, double[] weights, String... keys) {
+        connection.zUnionStore(raw(destKey), RedisZSetCommands.Aggregate.SUM, RedisZSetCommands.Weights.of(weights), raw(keys));
+        return this;
+    }
+
+    public RedisPipeline zremrangeByScore(String key, double min, double max) {
+        connection.zRemRangeByScore(raw(key), min, max);
+        return this;
+    }
+
+    private static byte[] raw(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[][] raw(String[] s) {
+        byte[][] raw = new byte[s.length][];
+        for (int i = 0; i < s.length; i++) {
+            raw[i] = raw(s[i]);
+        }
+        return raw;
+    }
+}
@@ -1,13 +1,38 @@
 package com.hmdp.utils;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.geo.*;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
 import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 用来适配多包后redis Key问题专用
@@ -15,16 +40,76 @@ import java.util.concurrent.TimeUnit;
  */
 @Service
 public class RedisService {
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
 
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 每次 SCAN 的 COUNT
+     */
+    @Value("${hmdp.redis.scan-count:1000}")
+    private int scanCount = 1000;
+
     public Set<String> keysPrefix(String pattern) {
-        return stringRedisTemplate.keys(pattern + "*");
+        try (Stream<String> keys = scan(pattern + "*")) {
+            return keys.collect(Collectors.toSet());
+        }
     }
 
     public Set<String> keysSuffix(String pattern) {
-        return stringRedisTemplate.keys("*" + pattern);
+        try (Stream<String> keys = scan("*" + pattern)) {
+            return keys.collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * 用 SCAN 游标迭代匹配的key，不阻塞 Redis；遍历期间新增或删除的key可能出现也可能不出现，同一个key可能重复出现
+     * 返回的 Stream 是惰性的，每消费完一批才发送下一次 SCAN，使用后需要关闭以释放连接
+     */
+    public Stream<String> scan(String pattern) {
+        return scan(pattern, scanCount);
+    }
+
+    public Stream<String> scan(String pattern, int count) {
+        Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(connection ->
+                connection.scan(ScanOptions.scanOptions().match(pattern).count(count).build()));
+        if (cursor == null) {
+            return Stream.empty();
+        }
+        return stream(cursor).map(key -> new String(key, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 用 SSCAN 游标迭代集合成员，每次最多返回约 count 个，大集合也不会一次性读入内存
+     * 返回的 Stream 是惰性的，使用后需要关闭以释放连接
+     */
+    public Stream<String> sscan(String key, int count) {
+        Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(key, ScanOptions.scanOptions().count(count).build());
+        if (cursor == null) {
+            return Stream.empty();
+        }
+        return stream(cursor);
+    }
+
+    private static <T> Stream<T> stream(Cursor<T> cursor) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        cursor.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
     }
 
     public Long decryBy(String key) {
@@ -46,6 +131,14 @@ public class RedisService {
         return stringRedisTemplate.opsForValue().get(key);
     }
 
+    public List<String> multiGet(Collection<String> keys) {
+        return stringRedisTemplate.opsForValue().multiGet(keys);
+    }
+
+    public void multiSet(Map<String, String> values, long timeout, TimeUnit unit) { //一次往返写入多个带过期时间的key
+        pipelined(pipeline -> values.forEach((key, value) -> pipeline.set(key, value, timeout, unit)));
+    }
+
     public Long ttl(String key) {
         return stringRedisTemplate.getExpire(key);
     }
@@ -70,6 +163,14 @@ public class RedisService {
         return stringRedisTemplate.opsForValue().setIfAbsent(key, value);
     }
 
+    public Boolean setIfNotExist(String key, String value, long timeout, TimeUnit unit) {
+        return stringRedisTemplate.opsForValue().setIfAbsent(key, value, timeout, unit);
+    }
+
+    public void rename(String oldKey, String newKey) {
+        stringRedisTemplate.rename(oldKey, newKey);
+    }
+
     public Boolean hasKey(String key) {
         return stringRedisTemplate.hasKey(key);
     }
@@ -89,6 +190,10 @@ public class RedisService {
         stringRedisTemplate.opsForHash().putAll(key, map);
     }
 
+    public void hset(String key, Map<String, ?> map, long timeout, TimeUnit unit) { //一次往返写入哈希表并设置过期时间
+        pipelined(pipeline -> pipeline.hset(key, map).expire(key, timeout, unit));
+    }
+
     public Object hget(String key, Object field) { //返回哈希表key中给定域field的值
         return stringRedisTemplate.opsForHash().get(key, field);
     }
@@ -155,8 +260,8 @@ public class RedisService {
     /**
      * zset
      */
-    public void zadd(String key, String value, double score) {
-        stringRedisTemplate.opsForZSet().add(key, value, score);
+    public Boolean zadd(String key, String value, double score) {
+        return stringRedisTemplate.opsForZSet().add(key, value, score);
     }
 
     public void zadd(String key, Set<ZSetOperations.TypedTuple<String>> values) {
@@ -187,6 +292,62 @@ public class RedisService {
         return stringRedisTemplate.opsForZSet().remove(key, value);
     }
 
+    public Set<String> zrevrange(String key, long start, long end) {
+        return stringRedisTemplate.opsForZSet().reverseRange(key, start, end);
+    }
+
+    public Set<ZSetOperations.TypedTuple<String>> zrevrangeByScoreWithScores(String key, double min, double max, long offset, long count) {
+        return stringRedisTemplate.opsForZSet().reverseRangeByScoreWithScores(key, min, max, offset, count);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Set<ZSetOperations.TypedTuple<String>>> zrevrangeByScoreWithScores(List<String> keys, double min, double max, long offset, long count) { //一次往返按分数倒序读取多个key
+        RedisZSetCommands.Range range = RedisZSetCommands.Range.range().gte(min).lte(max);
+        RedisZSetCommands.Limit limit = RedisZSetCommands.Limit.limit().offset((int) offset).count((int) count);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.zRevRangeByScoreWithScores(rawKey(key), range, limit);
+            }
+            return null;
+        });
+        List<Set<ZSetOperations.TypedTuple<String>>> sets = new ArrayList<>(results.size());
+        results.forEach(result -> sets.add((Set<ZSetOperations.TypedTuple<String>>) result));
+        return sets;
+    }
+
+    public void zaddEach(Collection<String> keys, String value, double score, long maxSize) { //一次往返把同一个成员写入多个key，并只保留分数最高的 maxSize 个成员
+        byte[] rawValue = value.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                byte[] rawKey = rawKey(key);
+                connection.zAdd(rawKey, score, rawValue);
+                connection.zRemRange(rawKey, 0, -maxSize - 1);
+            }
+            return null;
+        });
+    }
+
+    public Double zincrby(String key, String value, double delta) {
+        return stringRedisTemplate.opsForZSet().incrementScore(key, value, delta);
+    }
+
+    public Double zscore(String key, Object value) {
+        return stringRedisTemplate.opsForZSet().score(key, value);
+    }
+
+    public List<Double> zscores(List<String> keys, String value) { //一次往返查询同一个成员在多个key中的分数
+        byte[] rawValue = value.getBytes(StandardCharsets.UTF_8);
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.zScore(rawKey(key), rawValue);
+            }
+            return null;
+        });
+        List<Double> result = new ArrayList<>(scores.size());
+        scores.forEach(score -> result.add((Double) score));
+        return result;
+    }
+
     /**
      * Set
      */
@@ -226,6 +387,18 @@ public class RedisService {
         return stringRedisTemplate.opsForSet().size(key);
     }
 
+    public Set<String> intersect(String key, String otherKey) {
+        return stringRedisTemplate.opsForSet().intersect(key, otherKey);
+    }
+
+    public void saddAll(Map<String, ? extends Collection<String>> values) { //一次往返向多个集合添加成员
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, members) -> connection.sAdd(rawKey(key),
+                    members.stream().map(member -> member.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new)));
+            return null;
+        });
+    }
+
     public String randomMember(String key) {
         return stringRedisTemplate.opsForSet().randomMember(key);
     }
@@ -234,4 +407,222 @@ public class RedisService {
         return stringRedisTemplate.type(key);
     }
 
+    /**
+     * geo
+     */
+    public Long geoAdd(String key, Point point, String member) {
+        return stringRedisTemplate.opsForGeo().add(key, point, member);
+    }
+
+    public void geoAddAll(Map<String, Map<String, Point>> locations) { //一次往返向多个key写入坐标
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            locations.forEach((key, members) -> {
+                Map<byte[], Point> rawMembers = new HashMap<>(members.size());
+                members.forEach((member, point) -> rawMembers.put(member.getBytes(StandardCharsets.UTF_8), point));
+                connection.geoAdd(rawKey(key), rawMembers);
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 按距离升序查询圆形范围内的前 limit 个成员，并返回距离
+     * GEORADIUS key x y radius m WITHDIST ASC COUNT limit
+     */
+    public GeoResults<RedisGeoCommands.GeoLocation<String>> geoRadius(String key, double x, double y, double radiusMeters, long limit) {
+        return stringRedisTemplate.opsForGeo().radius(key,
+                new Circle(new Point(x, y), new Distance(radiusMeters, RedisGeoCommands.DistanceUnit.METERS)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(limit));
+    }
+
+    /**
+     * HyperLogLog
+     */
+    public void pfaddAll(Map<String, ? extends Collection<String>> values, long timeout, TimeUnit unit) { //一次往返向多个HyperLogLog添加元素并刷新过期时间
+        long seconds = unit.toSeconds(timeout);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, members) -> {
+                byte[] rawKey = rawKey(key);
+                connection.pfAdd(rawKey, members.stream().map(member -> member.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new));
+                connection.expire(rawKey, seconds);
+            });
+            return null;
+        });
+    }
+
+    public Long pfcount(String... keys) { //多个key时返回并集的基数，不修改原有key
+        return stringRedisTemplate.opsForHyperLogLog().size(keys);
+    }
+
+    public Long pfmerge(String destKey, String... keys) {
+        return stringRedisTemplate.opsForHyperLogLog().union(destKey, keys);
+    }
+
+    /**
+     * bitmap
+     */
+    public Boolean setBit(String key, long offset, boolean value) {
+        return stringRedisTemplate.opsForValue().setBit(key, offset, value);
+    }
+
+    public void setBits(String key, long[] offsets) { //一次往返设置多个位
+        byte[] rawKey = rawKey(key);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long offset : offsets) {
+                connection.setBit(rawKey, offset, true);
+            }
+            return null;
+        });
+    }
+
+    public long[] bitFieldAndCount(String key, int bits) { //一次往返读取前 bits 位组成的无符号整数和整个位图中 1 的个数
+        byte[] rawKey = rawKey(key);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.bitField(rawKey, BitFieldSubCommands.create()
+                    .get(BitFieldSubCommands.BitFieldType.unsigned(bits)).valueAt(0));
+            connection.bitCount(rawKey);
+            return null;
+        });
+        List<?> field = (List<?>) results.get(0);
+        long value = field == null || field.isEmpty() || field.get(0) == null ? 0 : ((Number) field.get(0)).longValue();
+        Object count = results.get(1);
+        return new long[]{value, count == null ? 0 : ((Number) count).longValue()};
+    }
+
+    public byte[] getBytes(String key) {
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey(key)));
+    }
+
+    public List<byte[]> multiGetBytes(List<String> keys) { //一次往返读取多个二进制值，不存在的key对应null
+        byte[][] rawKeys = keys.stream().map(this::rawKey).toArray(byte[][]::new);
+        return stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+    }
+
+    public Long delete(Collection<String> keys) {
+        return stringRedisTemplate.delete(keys);
+    }
+
+    public void setBytes(String key, byte[] value) {
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> connection.set(rawKey(key), value));
+    }
+
+    public Long bitOr(String destKey, String... keys) {
+        byte[][] rawKeys = Arrays.stream(keys).map(this::rawKey).toArray(byte[][]::new);
+        return stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.bitOp(RedisStringCommands.BitOperation.OR, rawKey(destKey), rawKeys));
+    }
+
+    /**
+     * stream
+     */
+    public void createGroupIfAbsent(String key, String group) {
+        try {
+            // 从头消费，stream 不存在时自动创建
+            stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                    connection.streamCommands().xGroupCreate(rawKey(key), group, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 以消费者组方式读取消息
+     * @param offset ReadOffset.lastConsumed() 读取新消息；ReadOffset.from("0") 读取 pending list 中已投递未确认的消息
+     */
+    public List<MapRecord<String, Object, Object>> readGroup(String key, String group, String consumer,
+                                                            long count, Duration block, ReadOffset offset) {
+        StreamReadOptions options = StreamReadOptions.empty().count(count);
+        if (block != null) {
+            options = options.block(block);
+        }
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .read(org.springframework.data.redis.connection.stream.Consumer.from(group, consumer), options, StreamOffset.create(key, offset));
+        return records == null ? Collections.emptyList() : records;
+    }
+
+    public Long ack(String key, String group, RecordId... ids) {
+        return stringRedisTemplate.opsForStream().acknowledge(key, group, ids);
+    }
+
+    /**
+     * 查询消费者组中已投递未确认的消息 XPENDING key group start end count
+     */
+    public PendingMessages pending(String key, String group, Range<String> range, long count) {
+        return stringRedisTemplate.opsForStream().pending(key, group, range, count);
+    }
+
+    /**
+     * 把空闲时间不少于 minIdle 的消息转移给 consumer，已被其他消费者转移的消息空闲时间会重置，不会重复转移
+     * XCLAIM key group consumer min-idle-time id ... JUSTID
+     */
+    public List<RecordId> claim(String key, String group, String consumer, Duration minIdle, List<RecordId> ids) {
+        RedisStreamCommands.XClaimOptions options = RedisStreamCommands.XClaimOptions.minIdle(minIdle)
+                .ids(ids.toArray(new RecordId[0]));
+        List<RecordId> claimed = stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection ->
+                connection.streamCommands().xClaimJustId(rawKey(key), group, consumer, options));
+        return claimed == null ? Collections.emptyList() : claimed;
+    }
+
+    public RecordId xadd(String key, Map<String, String> fields) {
+        return stringRedisTemplate.opsForStream().add(key, fields);
+    }
+
+    /**
+     * lua
+     */
+    public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+        return stringRedisTemplate.execute(script, keys, args);
+    }
+
+    /**
+     * 释放锁，锁的值等于 token 时才删除，锁已过期并被其他节点持有时不会误删
+     * @return 是否删除
+     */
+    public boolean unlock(String key, String token) {
+        Long deleted = execute(UNLOCK_SCRIPT, Collections.singletonList(key), token);
+        return deleted != null && deleted > 0;
+    }
+
+    /**
+     * pub/sub
+     */
+    public void publish(String channel, String message) {
+        stringRedisTemplate.convertAndSend(channel, message);
+    }
+
+    public void subscribe(String channel, Consumer<String> handler) {
+        listenerContainer.addMessageListener(
+                (message, pattern) -> handler.accept(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(channel));
+    }
+
+    /**
+     * pipeline
+     * 在同一个连接上一次发送 commands 中添加的所有命令，按添加顺序返回结果
+     */
+    public List<Object> pipelined(Consumer<RedisPipeline> commands) {
+        return stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            commands.accept(new RedisPipeline(connection));
+            return null;
+        });
+    }
+
+    /**
+     * transaction
+     * 在 MULTI/EXEC 中原子执行 commands 中添加的所有命令，返回未反序列化的结果
+     */
+    public List<Object> transaction(Consumer<RedisPipeline> commands) {
+        return stringRedisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+            connection.multi();
+            commands.accept(new RedisPipeline(connection));
+            return connection.exec();
+        });
+    }
+
+    private byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
 }
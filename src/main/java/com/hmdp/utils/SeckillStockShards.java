@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_RELOAD_CHANNEL;
+
+/**
+ * 秒杀库存分片
+ * 超热点优惠券的库存拆分到 N 个子key，分片key使用 {voucherId:i} 哈希标签，集群模式下分布在不同节点，
+ * 请求按用户id路由到主分片，主分片售罄后依次尝试其他分片
+ * 一人一单的标记只保存在用户的主分片上
+ */
+@Component
+public class SeckillStockShards {
+    private static final DefaultRedisScript<Long> STOCK_SCRIPT;
+
+    static {
+        STOCK_SCRIPT = new DefaultRedisScript<>();
+        STOCK_SCRIPT.setLocation(new ClassPathResource("seckill_stock.lua"));
+        STOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    @Autowired
+    private RedisService redisService;
+
+    /**
+     * 库存分片数，1 表示不分片，使用单个库存key
+     * 修改后需要重新预热库存
+     */
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int shards;
+
+    public boolean enabled() {
+        return shards > 1;
+    }
+
+    /**
+     * 把库存平均拆分到各个分片，余数分给前面的分片
+     * 预热后通知所有节点清除该优惠券的售罄标记
+     */
+    public void preload(Long voucherId, int stock) {
+        if (!enabled()) {
+            redisService.set(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+        } else {
+            for (int i = 0; i < shards; i++) {
+                int shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+                redisService.set(stockKey(voucherId, i), String.valueOf(shardStock));
+            }
+        }
+        redisService.publish(SECKILL_STOCK_RELOAD_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 扣减分片库存并记录下单用户
+     * @return 0 成功，1 库存不足，2 重复下单，3 库存未预热
+     */
+    public int deduct(Long voucherId, Long userId) {
+        String uid = userId.toString();
+        int home = (int) Math.floorMod(userId, (long) shards);
+        // 1.主分片：判断一人一单、扣库存、记录用户，一次原子操作完成
+        int r = execute(Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home)), uid);
+        if (r != 1) {
+            return r;
+        }
+        boolean missing = false;
+        // 2.主分片售罄，先在主分片上占用下单资格，防止同一用户的并发请求在其他分片重复扣减
+        String orderKey = orderKey(voucherId, home);
+        Long added = redisService.sadd(orderKey, uid);
+        if (added == null || added == 0) {
+            return 2;
+        }
+        // 3.依次尝试其他分片，每个分片的扣减都是原子的，总库存不会超卖
+        for (int i = 1; i < shards; i++) {
+            int shard = (home + i) % shards;
+            int result = execute(Collections.singletonList(stockKey(voucherId, shard)), uid);
+            if (result == 0) {
+                return 0;
+            }
+            missing |= result == 3;
+        }
+        // 4.没有抢到库存，释放下单资格；有分片不存在时不能确定已售罄
+        redisService.srem(orderKey, uid);
+        return missing ? 3 : 1;
+    }
+
+    /**
+     * 撤销一次成功的扣减：库存归还到用户的主分片，并释放下单资格
+     * 扣减时可能用的是其他分片的库存，归还到主分片后总库存不变；两个key在同一个哈希槽，一次 pipeline 完成
+     */
+    public void release(Long voucherId, Long userId) {
+        int home = (int) Math.floorMod(userId, (long) shards);
+        redisService.pipelined(pipeline -> pipeline
+                .increment(stockKey(voucherId, home), 1)
+                .srem(orderKey(voucherId, home), userId.toString()));
+    }
+
+    private int execute(List<String> keys, String userId) {
+        Long result = redisService.execute(STOCK_SCRIPT, keys, userId);
+        return result == null ? 3 : result.intValue();
+    }
+
+    private static String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    private static String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+}
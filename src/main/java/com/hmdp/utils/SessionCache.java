@@ -0,0 +1,180 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录用户的本地缓存
+ * 按 token 缓存 UserDTO 和 Redis 中的过期时间，命中时不访问 Redis；未命中时 HGETALL + PTTL 一次往返加载
+ * token 剩余有效期低于阈值时才续期，续期请求在本地合并后定时一次 pipeline 批量 EXPIRE，同时续期用户的 token 索引
+ * 登出、修改资料时通过 pub/sub 通知所有节点清除本地缓存
+ */
+@Slf4j
+@Component
+public class SessionCache {
+    /**
+     * 按用户清除缓存的消息前缀，其余消息为 token
+     */
+    private static final String USER_MESSAGE_PREFIX = "user:";
+
+    @Autowired
+    private RedisService redisService;
+
+    @Qualifier("scheduledExecutorService")
+    @Autowired
+    private ScheduledExecutorService scheduler;
+
+    @Value("${hmdp.session.local-ttl-seconds:10}")
+    private long localTtlSeconds;
+
+    @Value("${hmdp.session.local-maximum-size:100000}")
+    private long localMaximumSize;
+
+    /**
+     * 剩余有效期低于该值时续期，默认 24 天，即每个 token 每天最多续期一次
+     */
+    @Value("${hmdp.session.refresh-threshold-minutes:34560}")
+    private long refreshThresholdMinutes;
+
+    @Value("${hmdp.session.refresh-flush-millis:1000}")
+    private long refreshFlushMillis;
+
+    private Cache<String, Session> sessions;
+
+    /**
+     * 待续期的 token 和所属用户id
+     */
+    private final Map<String, Long> pendingRefresh = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void createCache() {
+        sessions = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(localTtlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribeInvalidation() {
+        redisService.subscribe(LOGIN_INVALIDATE_CHANNEL, this::evictLocal);
+        scheduler.scheduleWithFixedDelay(this::flushRefresh, refreshFlushMillis, refreshFlushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 根据 token 获取登录用户，token 无效返回 null
+     */
+    public UserDTO get(String token) {
+        // 1.本地缓存未命中时从 Redis 加载，Caffeine 不缓存 null，无效 token 每次都会查询 Redis
+        Session session = sessions.get(token, this::load);
+        if (session == null) {
+            return null;
+        }
+        // 2.剩余有效期低于阈值时登记续期，本地先更新过期时间，避免同一 token 重复登记
+        long now = System.currentTimeMillis();
+        if (session.expireAt - now < TimeUnit.MINUTES.toMillis(refreshThresholdMinutes)) {
+            session.expireAt = now + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+            pendingRefresh.put(token, session.user.getId());
+        }
+        return session.user;
+    }
+
+    /**
+     * 清除所有节点上该 token 的缓存
+     */
+    public void invalidate(String token) {
+        sessions.invalidate(token);
+        redisService.publish(LOGIN_INVALIDATE_CHANNEL, token);
+    }
+
+    /**
+     * 清除所有节点上该用户所有 token 的缓存，用户资料修改后调用
+     */
+    public void invalidateUser(Long userId) {
+        evictLocal(USER_MESSAGE_PREFIX + userId);
+        redisService.publish(LOGIN_INVALIDATE_CHANNEL, USER_MESSAGE_PREFIX + userId);
+    }
+
+    private void evictLocal(String message) {
+        if (message.startsWith(USER_MESSAGE_PREFIX)) {
+            Long userId = Long.valueOf(message.substring(USER_MESSAGE_PREFIX.length()));
+            sessions.asMap().values().removeIf(session -> userId.equals(session.user.getId()));
+        } else {
+            sessions.invalidate(message);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Session load(String token) {
+        String key = LOGIN_USER_KEY + token;
+        List<Object> results = redisService.pipelined(pipeline -> pipeline.hgetAll(key).pttl(key));
+        Map<String, String> user = (Map<String, String>) results.get(0);
+        if (user == null || user.isEmpty()) {
+            return null;
+        }
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(Long.valueOf(user.get("id")));
+        userDTO.setNickName(user.get("nickName"));
+        userDTO.setIcon(user.get("icon"));
+        // 没有过期时间（-1）时按已到期处理，下次访问立即续期
+        Long pttl = (Long) results.get(1);
+        long now = System.currentTimeMillis();
+        return new Session(userDTO, pttl == null || pttl < 0 ? now : now + pttl);
+    }
+
+    /**
+     * 批量续期 token 和用户的 token 索引，索引的有效期不能短于 token，否则登出所有设备时会漏掉 token
+     * EXPIRE 对已经删除的 key 不生效，不会恢复已登出的 token
+     */
+    private void flushRefresh() {
+        if (pendingRefresh.isEmpty()) {
+            return;
+        }
+        Map<String, Long> tokens = new HashMap<>();
+        for (String token : pendingRefresh.keySet()) {
+            Long userId = pendingRefresh.remove(token);
+            if (userId != null) {
+                tokens.put(token, userId);
+            }
+        }
+        Set<Long> userIds = new HashSet<>(tokens.values());
+        try {
+            redisService.pipelined(pipeline -> {
+                tokens.keySet().forEach(token -> pipeline.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES));
+                userIds.forEach(userId -> pipeline.expire(LOGIN_USER_TOKENS_KEY + userId, LOGIN_USER_TTL, TimeUnit.MINUTES));
+            });
+        } catch (Exception e) {
+            log.error("登录 token 续期失败，共 {} 个，下次重试", tokens.size(), e);
+            tokens.forEach(pendingRefresh::putIfAbsent);
+        }
+    }
+
+    private static class Session {
+        private final UserDTO user;
+        private volatile long expireAt;
+
+        private Session(UserDTO user, long expireAt) {
+            this.user = user;
+            this.expireAt = expireAt;
+        }
+    }
+}
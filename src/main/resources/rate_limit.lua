@@ -0,0 +1,64 @@
+-- 多规则限流脚本：先检查全部规则，全部满足才同时消耗每条规则的许可，任意一条不满足时不消耗任何许可
+-- 1.参数列表
+-- 1.1.KEYS[i] 为第 i 条规则的key：滑动窗口是已放行请求的有序集合，分数为请求时间；令牌桶是保存 tokens 和 ts 的哈希
+-- 1.2.ARGV[1] 为本次请求的唯一标识，之后每条规则 3 个参数：
+--     滑动窗口 'window'、窗口长度毫秒数、窗口内最多放行的请求数
+--     令牌桶   'bucket'、桶容量、生成一个令牌的毫秒数
+local member = ARGV[1]
+-- 1.3.当前时间取 Redis 服务器时间，单位毫秒，各节点的时钟偏差不影响限流
+-- 使用 TIME 后再写入需要按命令效果复制，Redis 5 起为默认行为
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 2.检查每条规则，记录需要等待最久的规则
+local tokens = {}
+local rejected = -1
+local maxWait = 0
+for i, key in ipairs(KEYS) do
+    local base = (i - 1) * 3 + 1
+    local wait = 0
+    if (ARGV[base + 1] == 'bucket') then
+        -- 2.1.令牌桶：按经过的时间补充令牌，新建的桶是满的
+        local capacity = tonumber(ARGV[base + 2])
+        local interval = tonumber(ARGV[base + 3])
+        local bucket = redis.call('hmget', key, 'tokens', 'ts')
+        local ts = tonumber(bucket[2]) or now
+        tokens[i] = math.min(capacity, (tonumber(bucket[1]) or capacity) + math.max(now - ts, 0) / interval)
+        if (tokens[i] < 1) then
+            wait = math.max(math.ceil((1 - tokens[i]) * interval), 1)
+        end
+    else
+        -- 2.2.滑动窗口：移除已经离开窗口的请求后判断窗口是否已满
+        local window = tonumber(ARGV[base + 2])
+        redis.call('zremrangebyscore', key, 0, now - window)
+        if (redis.call('zcard', key) >= tonumber(ARGV[base + 3])) then
+            local oldest = redis.call('zrange', key, 0, 0, 'WITHSCORES')
+            wait = math.max(tonumber(oldest[2]) + window - now, 1)
+        end
+    end
+    if (wait > maxWait) then
+        rejected = i - 1
+        maxWait = wait
+    end
+end
+-- 3.有规则不满足，返回该规则的下标和需要等待的毫秒数，不消耗任何许可
+if (rejected >= 0) then
+    return { rejected, maxWait }
+end
+
+-- 4.全部满足，消耗每条规则的许可
+for i, key in ipairs(KEYS) do
+    local base = (i - 1) * 3 + 1
+    if (ARGV[base + 1] == 'bucket') then
+        local capacity = tonumber(ARGV[base + 2])
+        local interval = tonumber(ARGV[base + 3])
+        redis.call('hmset', key, 'tokens', tokens[i] - 1, 'ts', now)
+        redis.call('pexpire', key, math.ceil(capacity * interval))
+    else
+        local window = tonumber(ARGV[base + 2])
+        redis.call('zadd', key, now, member)
+        redis.call('pexpire', key, window)
+    end
+end
+return { -1, 0 }
@@ -0,0 +1,36 @@
+-- 1.参数列表
+-- 1.1.库存key
+local stockKey = KEYS[1]
+-- 1.2.已下单用户集合key
+local orderKey = KEYS[2]
+-- 1.3.订单消息队列key
+local streamKey = KEYS[3]
+-- 1.4.用户id
+local userId = ARGV[1]
+-- 1.5.优惠券id
+local voucherId = ARGV[2]
+-- 1.6.订单id
+local orderId = ARGV[3]
+
+-- 2.判断库存是否充足
+local stock = redis.call('get', stockKey)
+if (not stock) then
+    -- 2.1.库存未预热或 Redis 数据丢失，返回3，不能当作售罄
+    return 3
+end
+if (tonumber(stock) <= 0) then
+    -- 2.2.库存不足，返回1
+    return 1
+end
+-- 3.判断用户是否下单
+if (redis.call('sismember', orderKey, userId) == 1) then
+    -- 3.1.重复下单，返回2
+    return 2
+end
+-- 4.扣库存
+redis.call('incrby', stockKey, -1)
+-- 5.记录下单用户
+redis.call('sadd', orderKey, userId)
+-- 6.发送订单消息到队列中，XADD stream.orders * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
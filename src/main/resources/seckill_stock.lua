@@ -0,0 +1,31 @@
+-- 分片库存扣减脚本，所有key位于同一个哈希槽
+-- 1.参数列表
+-- 1.1.库存分片key
+local stockKey = KEYS[1]
+-- 1.2.已下单用户集合key，只在用户的主分片上传入；备用分片只扣库存
+local orderKey = KEYS[2]
+-- 1.3.用户id
+local userId = ARGV[1]
+
+-- 2.判断用户是否下单
+if (orderKey and redis.call('sismember', orderKey, userId) == 1) then
+    -- 2.1.重复下单，返回2
+    return 2
+end
+-- 3.判断库存是否充足
+local stock = redis.call('get', stockKey)
+if (not stock) then
+    -- 3.1.库存未预热或 Redis 数据丢失，返回3，不能当作售罄
+    return 3
+end
+if (tonumber(stock) <= 0) then
+    -- 3.2.库存不足，返回1
+    return 1
+end
+-- 4.扣库存
+redis.call('incrby', stockKey, -1)
+-- 5.记录下单用户
+if (orderKey) then
+    redis.call('sadd', orderKey, userId)
+end
+return 0
@@ -0,0 +1,11 @@
+-- 释放锁：锁的值与自己的标识一致时才删除，判断和删除在同一个脚本中原子执行
+-- 1.参数列表
+-- 1.1.锁的key
+local key = KEYS[1]
+-- 1.2.加锁时写入的标识
+local token = ARGV[1]
+
+if (redis.call('get', key) == token) then
+    return redis.call('del', key)
+end
+return 0
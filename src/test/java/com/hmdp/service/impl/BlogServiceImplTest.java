@@ -0,0 +1,255 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
+import com.baomidou.mybatisplus.core.conditions.update.Update;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.service.IFollowService;
+import com.hmdp.utils.RedisPipeline;
+import com.hmdp.utils.RedisService;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_DELTA_FLUSHING_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_DELTA_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_CELEBRITY_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_OUTBOX_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOWER_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOG_HOT_RECONCILE_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOG_LIKED_FLUSH_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class BlogServiceImplTest {
+
+    private static final long BLOG_ID = 7L;
+
+    private RedisService redisService;
+    private BlogMapper blogMapper;
+    private TransactionTemplate transactionTemplate;
+    private BlogServiceImpl blogService;
+
+    @BeforeEach
+    void setUp() {
+        redisService = mock(RedisService.class);
+        blogMapper = mock(BlogMapper.class);
+        transactionTemplate = mock(TransactionTemplate.class);
+        // 直接在当前线程执行事务回调
+        doAnswer(invocation -> {
+            Consumer<Object> action = invocation.getArgument(0);
+            action.accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        when(redisService.setIfNotExist(eq(LOCK_BLOG_LIKED_FLUSH_KEY), anyString(), anyLong(), any())).thenReturn(true);
+
+        blogService = new BlogServiceImpl();
+        ReflectionTestUtils.setField(blogService, "baseMapper", blogMapper);
+        ReflectionTestUtils.setField(blogService, "redisService", redisService);
+        ReflectionTestUtils.setField(blogService, "transactionTemplate", transactionTemplate);
+        ReflectionTestUtils.setField(blogService, "hotLikeWeight", 1D);
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        UserHolder.saveUser(user);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void likeAddsDeltaOnlyWhenMemberIsNew() {
+        String key = BLOG_LIKED_KEY + BLOG_ID;
+        when(redisService.zscore(key, "1")).thenReturn(null);
+        when(redisService.zadd(eq(key), eq("1"), anyDouble())).thenReturn(true);
+
+        blogService.likeBlog(BLOG_ID);
+
+        verify(redisService).hincrement(BLOG_LIKED_DELTA_KEY, "7", 1L);
+        verify(redisService).zincrby(BLOG_HOT_KEY, "7", 1D);
+
+        // 并发点击时 ZADD 没有新增成员，不重复计数
+        reset(redisService);
+        when(redisService.zscore(key, "1")).thenReturn(null);
+        when(redisService.zadd(eq(key), eq("1"), anyDouble())).thenReturn(false);
+        blogService.likeBlog(BLOG_ID);
+        verify(redisService, never()).hincrement(anyString(), anyString(), anyLong());
+        verify(redisService, never()).zincrby(anyString(), anyString(), anyDouble());
+    }
+
+    @Test
+    void secondLikeCancelsAndSubtractsDelta() {
+        String key = BLOG_LIKED_KEY + BLOG_ID;
+        when(redisService.zscore(key, "1")).thenReturn(1D);
+        when(redisService.zRemove(key, "1")).thenReturn(1L);
+
+        blogService.likeBlog(BLOG_ID);
+
+        verify(redisService).hincrement(BLOG_LIKED_DELTA_KEY, "7", -1L);
+        verify(redisService).zincrby(BLOG_HOT_KEY, "7", -1D);
+        verify(redisService, never()).zadd(anyString(), anyString(), anyDouble());
+    }
+
+    @Test
+    void flushRenamesDeltasBeforeWritingDatabase() {
+        when(redisService.hasKey(BLOG_LIKED_DELTA_FLUSHING_KEY)).thenReturn(false);
+        when(redisService.hasKey(BLOG_LIKED_DELTA_KEY)).thenReturn(true);
+        when(redisService.entries(BLOG_LIKED_DELTA_FLUSHING_KEY)).thenReturn(Collections.singletonMap("7", "3"));
+
+        ReflectionTestUtils.invokeMethod(blogService, "flushLiked");
+
+        InOrder inOrder = inOrder(redisService, blogMapper);
+        inOrder.verify(redisService).rename(BLOG_LIKED_DELTA_KEY, BLOG_LIKED_DELTA_FLUSHING_KEY);
+        inOrder.verify(blogMapper).update(isNull(), any());
+        inOrder.verify(redisService).delete(BLOG_LIKED_DELTA_FLUSHING_KEY);
+        inOrder.verify(redisService).unlock(eq(LOCK_BLOG_LIKED_FLUSH_KEY), anyString());
+        assertEquals(Collections.singletonList("liked = IFNULL(liked, 0) + 3"), updatedSql());
+    }
+
+    @Test
+    void flushRetriesLeftoverSnapshotWithoutMergingNewDeltas() {
+        // 上一轮回写失败留下的快照
+        when(redisService.hasKey(BLOG_LIKED_DELTA_FLUSHING_KEY)).thenReturn(true);
+        when(redisService.entries(BLOG_LIKED_DELTA_FLUSHING_KEY)).thenReturn(Collections.singletonMap("7", "-2"));
+
+        ReflectionTestUtils.invokeMethod(blogService, "flushLiked");
+
+        verify(redisService, never()).rename(anyString(), anyString());
+        verify(redisService).delete(BLOG_LIKED_DELTA_FLUSHING_KEY);
+        assertEquals(Collections.singletonList("liked = IFNULL(liked, 0) + -2"), updatedSql());
+    }
+
+    @Test
+    void failedDatabaseWriteKeepsSnapshot() {
+        when(redisService.hasKey(BLOG_LIKED_DELTA_FLUSHING_KEY)).thenReturn(true);
+        when(redisService.entries(BLOG_LIKED_DELTA_FLUSHING_KEY)).thenReturn(Collections.singletonMap("7", "3"));
+        when(blogMapper.update(any(), any())).thenThrow(new IllegalStateException("db down"));
+
+        ReflectionTestUtils.invokeMethod(blogService, "flushLiked");
+
+        verify(redisService, never()).delete(BLOG_LIKED_DELTA_FLUSHING_KEY);
+        verify(redisService).unlock(eq(LOCK_BLOG_LIKED_FLUSH_KEY), anyString());
+    }
+
+    @Test
+    void flushSkipsWhenNothingToWrite() {
+        ReflectionTestUtils.invokeMethod(blogService, "flushLiked");
+
+        verify(redisService, never()).rename(anyString(), anyString());
+        verifyNoInteractions(transactionTemplate, blogMapper);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void pushWritesFollowerInboxesInBatches() {
+        ReflectionTestUtils.setField(blogService, "inboxMaxSize", 500L);
+        List<String> followers = IntStream.range(0, 2500).mapToObj(String::valueOf).collect(Collectors.toList());
+        when(redisService.sscan(FOLLOWER_KEY + 1, 1000)).thenReturn(followers.stream());
+
+        ReflectionTestUtils.invokeMethod(blogService, "publishToFeed", 1L, BLOG_ID, 100L);
+
+        ArgumentCaptor<Collection<String>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(redisService, times(3)).zaddEach(captor.capture(), eq("7"), eq(100D), eq(500L));
+        assertEquals(Arrays.asList(1000, 1000, 500),
+                captor.getAllValues().stream().map(Collection::size).collect(Collectors.toList()));
+        assertTrue(captor.getAllValues().get(0).contains(FEED_KEY + 0));
+        assertTrue(captor.getAllValues().get(2).contains(FEED_KEY + 2499));
+    }
+
+    @Test
+    void celebrityWritesOnlyOutbox() {
+        ReflectionTestUtils.setField(blogService, "feedHybrid", true);
+        ReflectionTestUtils.setField(blogService, "inboxMaxSize", 500L);
+        when(redisService.isMember(FEED_CELEBRITY_KEY, "1")).thenReturn(true);
+
+        ReflectionTestUtils.invokeMethod(blogService, "publishToFeed", 1L, BLOG_ID, 100L);
+
+        verify(redisService).zaddEach(Collections.singletonList(FEED_OUTBOX_KEY + 1), "7", 100D, 500L);
+        verify(redisService, never()).sscan(anyString(), anyInt());
+    }
+
+    @Test
+    void feedPullsOutboxesOfFollowedCelebrities() {
+        ReflectionTestUtils.setField(blogService, "feedHybrid", true);
+        ReflectionTestUtils.setField(blogService, "celebrities", new HashSet<>(Arrays.asList(3L, 4L)));
+        IFollowService followService = mock(IFollowService.class);
+        when(followService.queryFollowingIds(1L)).thenReturn(new HashSet<>(Arrays.asList(2L, 3L)));
+        ReflectionTestUtils.setField(blogService, "followService", followService);
+        when(redisService.zrevrangeByScoreWithScores(anyList(), anyDouble(), anyDouble(), anyLong(), anyLong()))
+                .thenReturn(Collections.emptyList());
+
+        blogService.queryBlogOfFollow(100L, 0);
+
+        verify(redisService).zrevrangeByScoreWithScores(
+                Arrays.asList(FEED_KEY + 1, FEED_OUTBOX_KEY + 3), 0, 100L, 0, SystemConstants.MAX_PAGE_SIZE);
+    }
+
+    @Test
+    void reconcileKeepsIncrementsMadeDuringRebuild() {
+        ReflectionTestUtils.setField(blogService, "hotGravityHours", 24D);
+        when(redisService.setIfNotExist(eq(LOCK_BLOG_HOT_RECONCILE_KEY), anyString(), anyLong(), any())).thenReturn(true);
+        RedisPipeline pipeline = mock(RedisPipeline.class, RETURNS_SELF);
+        RedisPipeline tx = mock(RedisPipeline.class, RETURNS_SELF);
+        doAnswer(invocation -> {
+            invocation.<Consumer<RedisPipeline>>getArgument(0).accept(pipeline);
+            return Collections.emptyList();
+        }).when(redisService).pipelined(any());
+        doAnswer(invocation -> {
+            invocation.<Consumer<RedisPipeline>>getArgument(0).accept(tx);
+            return Collections.emptyList();
+        }).when(redisService).transaction(any());
+        when(redisService.entries(anyString())).thenReturn(Collections.emptyMap());
+        Blog blog = new Blog();
+        blog.setId(BLOG_ID);
+        blog.setLiked(3);
+        when(blogMapper.selectList(any())).thenReturn(Collections.singletonList(blog));
+
+        ReflectionTestUtils.invokeMethod(blogService, "reconcileHotBlogs");
+
+        // 1.读取数据库之前复制热榜作为基准
+        ArgumentCaptor<String> baseKey = ArgumentCaptor.forClass(String.class);
+        InOrder inOrder = inOrder(pipeline, blogMapper, redisService, tx);
+        inOrder.verify(pipeline).zunionstore(baseKey.capture(), aryEq(new double[]{1}), eq(BLOG_HOT_KEY));
+        inOrder.verify(blogMapper).selectList(any());
+        ArgumentCaptor<String> tmpKey = ArgumentCaptor.forClass(String.class);
+        inOrder.verify(redisService).zadd(tmpKey.capture(), anySet());
+        // 2.替换前把 当前热榜 - 基准 的差值加到临时key，再原子替换
+        ArgumentCaptor<String> diffKey = ArgumentCaptor.forClass(String.class);
+        inOrder.verify(tx).zunionstore(diffKey.capture(), aryEq(new double[]{1, -1}), eq(BLOG_HOT_KEY), eq(baseKey.getValue()));
+        inOrder.verify(tx).zremrangeByScore(diffKey.getValue(), 0, 0);
+        inOrder.verify(tx).zunionstore(eq(tmpKey.getValue()), aryEq(new double[]{1, 1}), eq(tmpKey.getValue()), eq(diffKey.getValue()));
+        inOrder.verify(tx).rename(tmpKey.getValue(), BLOG_HOT_KEY);
+        inOrder.verify(redisService).delete(baseKey.getValue());
+        inOrder.verify(redisService).unlock(eq(LOCK_BLOG_HOT_RECONCILE_KEY), anyString());
+        // 所有临时key与热榜在同一个哈希槽
+        assertTrue(baseKey.getValue().startsWith(BLOG_HOT_KEY) && diffKey.getValue().startsWith(BLOG_HOT_KEY)
+                && tmpKey.getValue().startsWith(BLOG_HOT_KEY));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> updatedSql() {
+        ArgumentCaptor<Wrapper<?>> captor = ArgumentCaptor.forClass(Wrapper.class);
+        verify(blogMapper, atLeastOnce()).update(isNull(), (Wrapper) captor.capture());
+        return captor.getAllValues().stream()
+                .map(wrapper -> ((Update<?, ?>) wrapper).getSqlSet())
+                .collect(Collectors.toList());
+    }
+}
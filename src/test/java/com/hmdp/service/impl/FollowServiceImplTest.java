@@ -0,0 +1,190 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisPipeline;
+import com.hmdp.utils.RedisService;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.FOLLOWER_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_WARMED_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class FollowServiceImplTest {
+
+    private static final long USER_ID = 1L;
+    private static final long FOLLOW_USER_ID = 2L;
+
+    private RedisService redisService;
+    private RedisPipeline pipeline;
+    private FollowMapper followMapper;
+    private IUserService userService;
+    private FollowServiceImpl followService;
+
+    @BeforeEach
+    void setUp() {
+        redisService = mock(RedisService.class);
+        pipeline = mock(RedisPipeline.class, RETURNS_SELF);
+        doAnswer(invocation -> {
+            Consumer<RedisPipeline> commands = invocation.getArgument(0);
+            commands.accept(pipeline);
+            return Collections.emptyList();
+        }).when(redisService).pipelined(any());
+        followMapper = mock(FollowMapper.class);
+        userService = mock(IUserService.class);
+
+        followService = new FollowServiceImpl();
+        ReflectionTestUtils.setField(followService, "baseMapper", followMapper);
+        ReflectionTestUtils.setField(followService, "redisService", redisService);
+        ReflectionTestUtils.setField(followService, "userService", userService);
+        UserDTO user = new UserDTO();
+        user.setId(USER_ID);
+        UserHolder.saveUser(user);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void followInsertsRowAndBothSets() {
+        when(followMapper.insert(any())).thenReturn(1);
+
+        assertTrue(followService.follow(FOLLOW_USER_ID, true).getSuccess());
+
+        ArgumentCaptor<Follow> captor = ArgumentCaptor.forClass(Follow.class);
+        verify(followMapper).insert(captor.capture());
+        assertEquals(USER_ID, captor.getValue().getUserId());
+        assertEquals(FOLLOW_USER_ID, captor.getValue().getFollowUserId());
+        verify(pipeline).sadd(FOLLOW_KEY + USER_ID, "2");
+        verify(pipeline).sadd(FOLLOWER_KEY + FOLLOW_USER_ID, "1");
+        // 已关注的判断走 Redis 集合，不查询数据库
+        verify(followMapper, never()).selectCount(any());
+    }
+
+    @Test
+    void followSkipsWhenAlreadyInSet() {
+        when(redisService.isMember(FOLLOW_KEY + USER_ID, "2")).thenReturn(true);
+
+        assertTrue(followService.follow(FOLLOW_USER_ID, true).getSuccess());
+
+        verifyNoInteractions(followMapper);
+        verify(redisService, never()).pipelined(any());
+    }
+
+    @Test
+    void duplicateFollowStillRepairsSets() {
+        // 预热尚未完成时集合里没有这条关系，唯一索引拒绝重复插入
+        when(followMapper.insert(any())).thenThrow(new DuplicateKeyException("uk_user_follow"));
+
+        assertTrue(followService.follow(FOLLOW_USER_ID, true).getSuccess());
+
+        verify(pipeline).sadd(FOLLOW_KEY + USER_ID, "2");
+        verify(pipeline).sadd(FOLLOWER_KEY + FOLLOW_USER_ID, "1");
+    }
+
+    @Test
+    void followSelfIsRejected() {
+        assertFalse(followService.follow(USER_ID, true).getSuccess());
+        verifyNoInteractions(followMapper, redisService);
+    }
+
+    @Test
+    void unfollowRemovesFromBothSetsOnlyWhenRowDeleted() {
+        when(followMapper.delete(any())).thenReturn(1);
+        followService.follow(FOLLOW_USER_ID, false);
+        verify(pipeline).srem(FOLLOW_KEY + USER_ID, "2");
+        verify(pipeline).srem(FOLLOWER_KEY + FOLLOW_USER_ID, "1");
+
+        reset(pipeline);
+        when(followMapper.delete(any())).thenReturn(0);
+        followService.follow(FOLLOW_USER_ID, false);
+        verifyNoInteractions(pipeline);
+    }
+
+    @Test
+    void followCommonsQueriesIntersectedUsers() {
+        when(redisService.intersect(FOLLOW_KEY + USER_ID, FOLLOW_KEY + 3)).thenReturn(new HashSet<>(Arrays.asList("5", "6")));
+        Map<Long, UserDTO> users = new LinkedHashMap<>();
+        users.put(5L, new UserDTO());
+        users.put(6L, new UserDTO());
+        when(userService.queryUserDTOs(anyCollection())).thenReturn(users);
+
+        Result result = followService.followCommons(3L);
+
+        assertEquals(2, ((List<?>) result.getData()).size());
+        ArgumentCaptor<Collection<Long>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(userService).queryUserDTOs(captor.capture());
+        assertEquals(new HashSet<>(Arrays.asList(5L, 6L)), new HashSet<>(captor.getValue()));
+    }
+
+    @Test
+    void followCommonsWithoutIntersectionSkipsUserQuery() {
+        when(redisService.intersect(anyString(), anyString())).thenReturn(Collections.emptySet());
+
+        assertEquals(Collections.emptyList(), followService.followCommons(3L).getData());
+        verifyNoInteractions(userService);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void warmUpLoadsFollowsAndFollowersInBatches() {
+        when(redisService.setIfNotExist(eq(FOLLOW_WARMED_KEY), anyString(), anyLong(), any())).thenReturn(true);
+        when(followMapper.selectList(any())).thenReturn(Arrays.asList(follow(1, 1, 2), follow(2, 1, 3), follow(3, 4, 2)));
+
+        followService.warmUpFollows();
+
+        ArgumentCaptor<Map<String, List<String>>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(redisService).saddAll(captor.capture());
+        Map<String, List<String>> sets = captor.getValue();
+        assertEquals(Arrays.asList("2", "3"), sets.get(FOLLOW_KEY + 1));
+        assertEquals(Collections.singletonList("2"), sets.get(FOLLOW_KEY + 4));
+        assertEquals(Arrays.asList("1", "4"), sets.get(FOLLOWER_KEY + 2));
+        assertEquals(Collections.singletonList("1"), sets.get(FOLLOWER_KEY + 3));
+        verify(redisService).set(FOLLOW_WARMED_KEY, "1");
+    }
+
+    @Test
+    void warmUpRunsOncePerCluster() {
+        when(redisService.setIfNotExist(eq(FOLLOW_WARMED_KEY), anyString(), anyLong(), any())).thenReturn(false);
+
+        followService.warmUpFollows();
+
+        verifyNoInteractions(followMapper);
+    }
+
+    @Test
+    void failedWarmUpReleasesMarker() {
+        when(redisService.setIfNotExist(eq(FOLLOW_WARMED_KEY), anyString(), anyLong(), any())).thenReturn(true);
+        when(followMapper.selectList(any())).thenThrow(new IllegalStateException("db down"));
+
+        followService.warmUpFollows();
+
+        verify(redisService).delete(FOLLOW_WARMED_KEY);
+        verify(redisService, never()).set(FOLLOW_WARMED_KEY, "1");
+    }
+
+    private static Follow follow(long id, long userId, long followUserId) {
+        Follow follow = new Follow();
+        follow.setId(id);
+        follow.setUserId(userId);
+        follow.setFollowUserId(followUserId);
+        return follow;
+    }
+}
@@ -0,0 +1,352 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.AsyncManager;
+import com.hmdp.utils.BloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FakeRedisService;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_CACHE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShopServiceImplTest {
+
+    private static final long SHOP_ID = 1L;
+    private static final int THREADS = 200;
+    private static final long DOUBLE_DELETE_DELAY_MILLIS = 200;
+
+    private final AtomicInteger dbHits = new AtomicInteger();
+    private final AtomicReference<Shop> db = new AtomicReference<>(newShop("fresh"));
+    private FakeRedisService redisService;
+    private ThreadPoolTaskExecutor executor;
+    private ScheduledExecutorService scheduler;
+    private ShopServiceImpl shopService;
+    private ShopMapper shopMapper;
+
+    @BeforeEach
+    void setUp() {
+        redisService = new FakeRedisService();
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.initialize();
+
+        shopMapper = mock(ShopMapper.class);
+        when(shopMapper.selectById(any())).thenAnswer(invocation -> {
+            dbHits.incrementAndGet();
+            // 模拟慢查询，放大并发窗口
+            Thread.sleep(50);
+            return SHOP_ID == (Long) invocation.getArgument(0) ? copy(db.get()) : null;
+        });
+        when(shopMapper.updateById(any())).thenAnswer(invocation -> {
+            db.set(copy(invocation.getArgument(0)));
+            return 1;
+        });
+        scheduler = Executors.newScheduledThreadPool(1);
+        AsyncManager asyncManager = new AsyncManager();
+        ReflectionTestUtils.setField(asyncManager, "executor", scheduler);
+
+        CacheClient cacheClient = new CacheClient();
+        ReflectionTestUtils.setField(cacheClient, "redisService", redisService);
+        ReflectionTestUtils.setField(cacheClient, "executor", executor);
+
+        shopService = new ShopServiceImpl();
+        ReflectionTestUtils.setField(shopService, "baseMapper", shopMapper);
+        ReflectionTestUtils.setField(shopService, "cacheClient", cacheClient);
+        ReflectionTestUtils.setField(shopService, "redisService", redisService);
+        ReflectionTestUtils.setField(shopService, "asyncManager", asyncManager);
+        ReflectionTestUtils.setField(shopService, "doubleDeleteDelayMillis", DOUBLE_DELETE_DELAY_MILLIS);
+        ReflectionTestUtils.setField(shopService, "bloomExpectedInsertions", 1000L);
+        ReflectionTestUtils.setField(shopService, "bloomFpp", 0.01);
+        ReflectionTestUtils.setField(shopService, "localMaximumSize", 100L);
+        ReflectionTestUtils.setField(shopService, "localTtlSeconds", 60L);
+        ReflectionTestUtils.setField(shopService, "nearbyRadiusMeters", 5000D);
+        ReflectionTestUtils.setField(shopService, "nearbyMaxPage", 3);
+        shopService.createCaches();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void logicalExpireRebuildsOncePerExpiry() throws Exception {
+        ReflectionTestUtils.setField(shopService, "logicalExpire", true);
+        // 写入一条已经逻辑过期的缓存
+        RedisData stale = new RedisData();
+        stale.setData(newShop("stale"));
+        stale.setExpireTime(LocalDateTime.now().minusSeconds(1));
+        redisService.set(CACHE_SHOP_KEY + SHOP_ID, JSONUtil.toJsonStr(stale));
+
+        List<Shop> results = runConcurrently(this::queryShop);
+        awaitRebuild();
+
+        // 重建期间的请求直接拿到旧数据，整个过期周期只有一次回源
+        results.forEach(shop -> assertTrue("stale".equals(shop.getName()) || "fresh".equals(shop.getName())));
+        assertEquals(1, dbHits.get());
+        RedisData rebuilt = JSONUtil.toBean(redisService.get(CACHE_SHOP_KEY + SHOP_ID), RedisData.class);
+        assertEquals("fresh", JSONUtil.toBean((JSONObject) rebuilt.getData(), Shop.class).getName());
+    }
+
+    @Test
+    void rejectedRebuildReleasesLockAndReturnsStale() {
+        ReflectionTestUtils.setField(shopService, "logicalExpire", true);
+        ThreadPoolTaskExecutor saturated = mock(ThreadPoolTaskExecutor.class);
+        doThrow(new TaskRejectedException("saturated")).when(saturated).execute(any(Runnable.class));
+        CacheClient cacheClient = (CacheClient) ReflectionTestUtils.getField(shopService, "cacheClient");
+        ReflectionTestUtils.setField(cacheClient, "executor", saturated);
+        RedisData stale = new RedisData();
+        stale.setData(newShop("stale"));
+        stale.setExpireTime(LocalDateTime.now().minusSeconds(1));
+        redisService.set(CACHE_SHOP_KEY + SHOP_ID, JSONUtil.toJsonStr(stale));
+
+        // 线程池已满时返回旧数据，并释放锁，之后的请求可以重试重建
+        assertEquals("stale", queryShop().getName());
+        assertNull(redisService.get(LOCK_SHOP_KEY + SHOP_ID));
+    }
+
+    @Test
+    void mutexLoadsOncePerMiss() throws Exception {
+        List<Shop> results = runConcurrently(this::queryShop);
+
+        // 缓存未命中时所有并发请求共享一次回源
+        results.forEach(shop -> assertEquals("fresh", shop.getName()));
+        assertEquals(1, dbHits.get());
+        assertNotNull(redisService.get(CACHE_SHOP_KEY + SHOP_ID));
+    }
+
+    @Test
+    void mutexWaitsForOtherNode() throws Exception {
+        // 模拟其他节点持有锁，并在 100ms 后写入缓存
+        redisService.set(LOCK_SHOP_KEY + SHOP_ID, "other-node");
+        Executors.newSingleThreadScheduledExecutor().schedule(() -> {
+            redisService.set(CACHE_SHOP_KEY + SHOP_ID, JSONUtil.toJsonStr(newShop("other")));
+            redisService.delete(LOCK_SHOP_KEY + SHOP_ID);
+        }, 100, TimeUnit.MILLISECONDS);
+
+        List<Shop> results = runConcurrently(this::queryShop);
+
+        // 本节点不回源，退避后读到其他节点写入的缓存
+        results.forEach(shop -> assertEquals("other", shop.getName()));
+        assertEquals(0, dbHits.get());
+    }
+
+    @Test
+    void missingShopIsCachedAsNull() throws Exception {
+        long missingId = 2L;
+        List<Shop> results = runConcurrently(() -> (Shop) shopService.queryById(missingId).getData());
+
+        // 不存在的商铺只回源一次，之后命中空值缓存
+        results.forEach(Assertions::assertNull);
+        assertEquals("", redisService.get(CACHE_SHOP_KEY + missingId));
+        assertFalse(shopService.queryById(missingId).getSuccess());
+        assertEquals(1, dbHits.get());
+    }
+
+    @Test
+    void bloomFilterRejectsUnknownIds() {
+        BloomFilter bloomFilter = (BloomFilter) ReflectionTestUtils.getField(shopService, "bloomFilter");
+        bloomFilter.put(SHOP_ID);
+        ReflectionTestUtils.setField(shopService, "bloomReady", true);
+
+        // 一定不存在的id不访问 Redis 和数据库
+        assertFalse(shopService.queryById(999L).getSuccess());
+        assertNull(redisService.get(CACHE_SHOP_KEY + 999L));
+        assertEquals(0, dbHits.get());
+        assertEquals("fresh", queryShop().getName());
+    }
+
+    @Test
+    void typeOnlyUpdateMovesGeoMember() {
+        db.set(newShop("fresh").setX(120.1).setY(30.2));
+        List<String> geoOps = new ArrayList<>();
+        FakeRedisService geoRedis = new FakeRedisService() {
+            @Override
+            public Long zRemove(String key, Object value) {
+                geoOps.add("remove " + key + " " + value);
+                return 1L;
+            }
+
+            @Override
+            public Long geoAdd(String key, Point point, String member) {
+                geoOps.add("add " + key + " " + point.getX() + "," + point.getY() + " " + member);
+                return 1L;
+            }
+        };
+        ReflectionTestUtils.setField(shopService, "redisService", geoRedis);
+
+        // 只修改类型时，按原来的坐标从旧类型的索引移到新类型的索引
+        assertTrue(shopService.updateShop(new Shop().setId(SHOP_ID).setTypeId(2L)).getSuccess());
+        assertEquals(Arrays.asList(
+                "remove " + SHOP_GEO_KEY + "1 " + SHOP_ID,
+                "add " + SHOP_GEO_KEY + "2 120.1,30.2 " + SHOP_ID), geoOps);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void nearbyShopsArePagedByDistance() {
+        List<Long> limits = new ArrayList<>();
+        FakeRedisService geoRedis = new FakeRedisService() {
+            @Override
+            public GeoResults<RedisGeoCommands.GeoLocation<String>> geoRadius(String key, double x, double y, double radiusMeters, long limit) {
+                limits.add(limit);
+                // 12 个商铺，id 越大距离越远
+                List<GeoResult<RedisGeoCommands.GeoLocation<String>>> results = new ArrayList<>();
+                for (long id = 1; id <= Math.min(12, limit); id++) {
+                    results.add(new GeoResult<>(new RedisGeoCommands.GeoLocation<>(String.valueOf(id), new Point(x, y)),
+                            new Distance(id * 100D)));
+                }
+                return new GeoResults<>(results);
+            }
+        };
+        ReflectionTestUtils.setField(shopService, "redisService", geoRedis);
+        // 数据库按 id 倒序返回，结果仍按距离排序
+        when(shopMapper.selectBatchIds(any())).thenAnswer(invocation -> {
+            List<Shop> shops = new ArrayList<>();
+            for (Object id : (Collection<Long>) invocation.getArgument(0)) {
+                shops.add(0, new Shop().setId((Long) id));
+            }
+            return shops;
+        });
+
+        List<Shop> page2 = (List<Shop>) shopService.queryShopByType(1, 2, 120.1, 30.2).getData();
+        assertEquals(Arrays.asList(6L, 7L, 8L, 9L, 10L), page2.stream().map(Shop::getId).collect(Collectors.toList()));
+        assertEquals(600D, page2.get(0).getDistance());
+        List<Shop> page3 = (List<Shop>) shopService.queryShopByType(1, 3, 120.1, 30.2).getData();
+        assertEquals(Arrays.asList(11L, 12L), page3.stream().map(Shop::getId).collect(Collectors.toList()));
+        assertEquals(Arrays.asList(10L, 15L), limits);
+
+        // 超过最大页数直接返回空，不访问 Redis
+        assertEquals(Collections.emptyList(), shopService.queryShopByType(1, 4, 120.1, 30.2).getData());
+        assertEquals(2, limits.size());
+    }
+
+    @Test
+    void localCacheServesHotShopAndIsInvalidatedOnUpdate() {
+        queryShop();
+        queryShop();
+        redisService.delete(CACHE_SHOP_KEY + SHOP_ID);
+
+        // 第二次及之后的查询命中本地缓存，不访问 Redis
+        assertEquals("fresh", queryShop().getName());
+        assertEquals(1, dbHits.get());
+
+        assertTrue(shopService.updateShop(new Shop().setId(SHOP_ID).setName("updated")).getSuccess());
+
+        // 更新后清除 Redis 和本地缓存，并广播失效消息
+        assertNull(redisService.get(CACHE_SHOP_KEY + SHOP_ID));
+        assertTrue(redisService.published.contains(SHOP_CACHE_CHANNEL + ":" + SHOP_ID));
+        queryShop();
+        assertEquals(2, dbHits.get());
+    }
+
+    @Test
+    void noStaleReadsAfterUpdateStorm() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(10);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger version = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(pool.submit(() -> {
+                while (running.get()) {
+                    queryShop();
+                }
+            }));
+        }
+        for (int i = 0; i < 2; i++) {
+            futures.add(pool.submit(() -> {
+                while (running.get()) {
+                    shopService.updateShop(newShop("v" + version.incrementAndGet()));
+                    Thread.sleep(20);
+                }
+                return null;
+            }));
+        }
+        Thread.sleep(1000);
+        running.set(false);
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        // 等待延迟双删执行完
+        Thread.sleep(2 * DOUBLE_DELETE_DELAY_MILLIS);
+
+        // 读写风暴结束后，本地缓存和 Redis 都与数据库一致
+        String latest = db.get().getName();
+        assertTrue(version.get() > 10);
+        assertEquals(latest, queryShop().getName());
+        assertEquals(latest, JSONUtil.toBean(redisService.get(CACHE_SHOP_KEY + SHOP_ID), Shop.class).getName());
+    }
+
+    private Shop queryShop() {
+        return (Shop) shopService.queryById(SHOP_ID).getData();
+    }
+
+    private void awaitRebuild() throws InterruptedException {
+        executor.getThreadPoolExecutor().shutdown();
+        assertTrue(executor.getThreadPoolExecutor().awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private List<Shop> runConcurrently(Callable<Shop> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Shop>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        List<Shop> results = new ArrayList<>();
+        for (Future<Shop> future : futures) {
+            results.add(future.get(5, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+        return results;
+    }
+
+    private static Shop copy(Shop shop) {
+        return newShop(shop.getName()).setX(shop.getX()).setY(shop.getY());
+    }
+
+    private static Shop newShop(String name) {
+        return new Shop().setId(SHOP_ID).setName(name).setTypeId(1L);
+    }
+}
@@ -0,0 +1,65 @@
+package com.hmdp.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.utils.RedisService;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TYPE_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ShopTypeServiceImplTest {
+
+    @Test
+    void catalogIsServedFromMemoryUntilVersionChanges() {
+        AtomicReference<String> version = new AtomicReference<>("1");
+        AtomicReference<String> snapshot = new AtomicReference<>("{\"success\":true,\"data\":[{\"id\":1}]}");
+        RedisService redisService = mock(RedisService.class);
+        when(redisService.pipelined(any())).thenAnswer(invocation -> Arrays.asList(version.get(), snapshot.get()));
+        ShopTypeServiceImpl shopTypeService = new ShopTypeServiceImpl();
+        ReflectionTestUtils.setField(shopTypeService, "redisService", redisService);
+        ReflectionTestUtils.setField(shopTypeService, "objectMapper", new ObjectMapper());
+
+        byte[] body = shopTypeService.queryTypeList();
+        assertEquals(snapshot.get(), new String(body, StandardCharsets.UTF_8));
+        for (int i = 0; i < 1000; i++) {
+            assertSame(body, shopTypeService.queryTypeList());
+        }
+        verify(redisService, times(1)).pipelined(any());
+
+        // 版本号不变时定时检查不替换目录
+        ReflectionTestUtils.invokeMethod(shopTypeService, "checkCatalog");
+        assertSame(body, shopTypeService.queryTypeList());
+
+        // 版本号变化后加载新快照
+        version.set("2");
+        snapshot.set("{\"success\":true,\"data\":[{\"id\":2}]}");
+        ReflectionTestUtils.invokeMethod(shopTypeService, "checkCatalog");
+        assertEquals(snapshot.get(), new String(shopTypeService.queryTypeList(), StandardCharsets.UTF_8));
+        verify(redisService, times(3)).pipelined(any());
+    }
+
+    @Test
+    void expiredSnapshotIsRebuiltOnlyByLockHolder() {
+        AtomicReference<String> snapshot = new AtomicReference<>("{\"success\":true,\"data\":[{\"id\":1}]}");
+        RedisService redisService = mock(RedisService.class);
+        when(redisService.pipelined(any())).thenAnswer(invocation -> Arrays.asList("1", snapshot.get()));
+        ShopTypeServiceImpl shopTypeService = new ShopTypeServiceImpl();
+        ReflectionTestUtils.setField(shopTypeService, "redisService", redisService);
+        ReflectionTestUtils.setField(shopTypeService, "objectMapper", new ObjectMapper());
+        byte[] body = shopTypeService.queryTypeList();
+
+        // 快照过期，其他节点持有重建锁：不查询数据库、不递增版本号，继续使用当前目录
+        snapshot.set(null);
+        when(redisService.setIfNotExist(eq(LOCK_SHOP_TYPE_KEY), anyString(), anyLong(), any())).thenReturn(false);
+        ReflectionTestUtils.invokeMethod(shopTypeService, "checkCatalog");
+        assertSame(body, shopTypeService.queryTypeList());
+        verify(redisService, never()).transaction(any());
+    }
+}
@@ -0,0 +1,32 @@
+package com.hmdp.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignServiceImplTest {
+
+    @Test
+    void streakCountsTrailingOnesFromToday() {
+        // BITFIELD GET u5 0：1 号在最高位，今天（5 号）在最低位
+        assertEquals(0, SignServiceImpl.streak(0b11110));
+        assertEquals(2, SignServiceImpl.streak(0b10011));
+        assertEquals(3, SignServiceImpl.streak(0b10111));
+        assertEquals(31, SignServiceImpl.streak((1L << 31) - 1));
+    }
+
+    @Test
+    void signedDaysFollowsRedisBitOrder() {
+        // SETBIT 偏移量 0 是第一个字节的最高位
+        byte[] bitmap = new byte[4];
+        for (int offset : new int[]{0, 7, 8, 30}) {
+            bitmap[offset / 8] |= (byte) (0x80 >>> (offset % 8));
+        }
+        assertEquals(Arrays.asList(1, 8, 9, 31), SignServiceImpl.signedDays(bitmap, 31));
+        // 小月忽略越界的位，位图可能比当月天数短
+        assertEquals(Arrays.asList(1, 8, 9), SignServiceImpl.signedDays(bitmap, 30));
+        assertEquals(Arrays.asList(1), SignServiceImpl.signedDays(new byte[]{(byte) 0x80}, 31));
+    }
+}
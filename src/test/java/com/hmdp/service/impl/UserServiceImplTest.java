@@ -0,0 +1,67 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+import com.hmdp.mapper.UserMapper;
+import com.hmdp.utils.FakeRedisService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class UserServiceImplTest {
+
+    private FakeRedisService redisService;
+    private UserMapper userMapper;
+    private UserServiceImpl userService;
+
+    @BeforeEach
+    void setUp() {
+        redisService = new FakeRedisService();
+        userMapper = mock(UserMapper.class);
+        // 只有 1~10 号用户存在
+        when(userMapper.selectBatchIds(any())).thenAnswer(invocation -> {
+            List<User> users = new ArrayList<>();
+            for (Object id : (Collection<?>) invocation.getArgument(0)) {
+                long userId = ((Number) id).longValue();
+                if (userId <= 10) {
+                    User user = new User();
+                    user.setId(userId);
+                    user.setNickName("user_" + userId);
+                    users.add(user);
+                }
+            }
+            return users;
+        });
+        userService = new UserServiceImpl();
+        ReflectionTestUtils.setField(userService, "baseMapper", userMapper);
+        ReflectionTestUtils.setField(userService, "redisService", redisService);
+    }
+
+    @Test
+    void batchLookupHitsDatabaseOnceAndFillsCache() {
+        List<Long> ids = Arrays.asList(1L, 2L, 2L, 3L, 99L);
+        Map<Long, UserDTO> users = userService.queryUserDTOs(ids);
+        assertEquals(3, users.size());
+        assertEquals("user_2", users.get(2L).getNickName());
+        verify(userMapper, times(1)).selectBatchIds(any());
+        // 不存在的用户缓存空值
+        assertEquals("", redisService.get(CACHE_USER_KEY + 99));
+
+        // 第二次全部命中缓存，不再查询数据库
+        users = userService.queryUserDTOs(ids);
+        assertEquals(3, users.size());
+        assertEquals("user_3", users.get(3L).getNickName());
+        verify(userMapper, times(1)).selectBatchIds(any());
+    }
+}
@@ -0,0 +1,387 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
+import com.baomidou.mybatisplus.core.conditions.update.Update;
+import com.baomidou.mybatisplus.extension.conditions.update.UpdateChainWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.FakeRedisService;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisPipeline;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_RELOAD_CHANNEL;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class VoucherOrderServiceImplTest {
+
+    private static final long VOUCHER_ID = 10L;
+
+    private final AtomicInteger scriptCalls = new AtomicInteger();
+    private long scriptResult = 1;
+    private final SeckillVoucher voucher = new SeckillVoucher();
+    private FakeRedisService redisService;
+    private ISeckillVoucherService seckillVoucherService;
+    private VoucherOrderServiceImpl voucherOrderService;
+    private final List<ReadOffset> readOffsets = new ArrayList<>();
+    private final List<List<RecordId>> acks = new ArrayList<>();
+    private final List<String> events = new ArrayList<>();
+    private VoucherOrderMapper voucherOrderMapper;
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @BeforeEach
+    void setUp() {
+        // 脚本默认返回库存不足
+        redisService = new FakeRedisService() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+                scriptCalls.incrementAndGet();
+                return (T) Long.valueOf(scriptResult);
+            }
+        };
+        voucher.setVoucherId(VOUCHER_ID);
+        voucher.setBeginTime(LocalDateTime.now().minusHours(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        seckillVoucherService = mock(ISeckillVoucherService.class);
+        when(seckillVoucherService.getById(any())).thenAnswer(invocation ->
+                VOUCHER_ID == (Long) invocation.getArgument(0) ? voucher : null);
+
+        RedisIdWorker redisIdWorker = new RedisIdWorker();
+        ReflectionTestUtils.setField(redisIdWorker, "redisService", redisService);
+        SeckillStockShards stockShards = new SeckillStockShards();
+        ReflectionTestUtils.setField(stockShards, "redisService", redisService);
+        ReflectionTestUtils.setField(stockShards, "shards", 1);
+
+        voucherOrderService = new VoucherOrderServiceImpl();
+        ReflectionTestUtils.setField(voucherOrderService, "redisService", redisService);
+        ReflectionTestUtils.setField(voucherOrderService, "seckillVoucherService", seckillVoucherService);
+        ReflectionTestUtils.setField(voucherOrderService, "redisIdWorker", redisIdWorker);
+        ReflectionTestUtils.setField(voucherOrderService, "seckillStockShards", stockShards);
+        voucherOrderService.subscribeSoldOut();
+
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        UserHolder.saveUser(user);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void soldOutIsRejectedLocally() {
+        assertFalse(voucherOrderService.seckillVoucher(VOUCHER_ID).getSuccess());
+        assertEquals(1, scriptCalls.get());
+        assertEquals(1, redisService.published.size());
+
+        for (int i = 0; i < 1000; i++) {
+            Result result = voucherOrderService.seckillVoucher(VOUCHER_ID);
+            assertEquals("库存不足", result.getErrorMsg());
+        }
+        // 售罄后不再访问 Redis，活动信息只查询一次数据库
+        assertEquals(1, scriptCalls.get());
+        assertEquals(1, redisService.published.size());
+        verify(seckillVoucherService, times(1)).getById(VOUCHER_ID);
+    }
+
+    @Test
+    void soldOutMessageFromOtherNode() {
+        redisService.publish(SECKILL_SOLD_OUT_CHANNEL, VOUCHER_ID + ":" + (System.currentTimeMillis() + 60000));
+        assertEquals("库存不足", voucherOrderService.seckillVoucher(VOUCHER_ID).getErrorMsg());
+        assertEquals(0, scriptCalls.get());
+    }
+
+    @Test
+    void missingStockIsNotMarkedSoldOut() {
+        // 库存key不存在时不标记售罄，也不通知其他节点
+        scriptResult = 3;
+        assertEquals("活动库存未就绪，请稍后再试", voucherOrderService.seckillVoucher(VOUCHER_ID).getErrorMsg());
+        assertEquals("活动库存未就绪，请稍后再试", voucherOrderService.seckillVoucher(VOUCHER_ID).getErrorMsg());
+        assertEquals(2, scriptCalls.get());
+        assertTrue(redisService.published.isEmpty());
+    }
+
+    @Test
+    void soldOutIsClearedWhenStockIsPreloaded() {
+        voucherOrderService.seckillVoucher(VOUCHER_ID);
+        voucherOrderService.seckillVoucher(VOUCHER_ID);
+        assertEquals(1, scriptCalls.get());
+
+        // 重新预热库存后，售罄标记被清除，请求重新访问 Redis
+        redisService.publish(SECKILL_STOCK_RELOAD_CHANNEL, String.valueOf(VOUCHER_ID));
+        scriptResult = 0;
+        assertTrue(voucherOrderService.seckillVoucher(VOUCHER_ID).getSuccess());
+        assertEquals(2, scriptCalls.get());
+    }
+
+    @Test
+    void soldOutExpiresWhenVoucherEnds() {
+        redisService.publish(SECKILL_SOLD_OUT_CHANNEL, VOUCHER_ID + ":" + (System.currentTimeMillis() - 1));
+        voucherOrderService.seckillVoucher(VOUCHER_ID);
+        assertEquals(1, scriptCalls.get());
+    }
+
+    @Test
+    void outsideTimeWindowIsRejectedLocally() {
+        voucher.setBeginTime(LocalDateTime.now().plusMinutes(1));
+        assertEquals("秒杀尚未开始！", voucherOrderService.seckillVoucher(VOUCHER_ID).getErrorMsg());
+        assertEquals("优惠券不存在！", voucherOrderService.seckillVoucher(VOUCHER_ID + 1).getErrorMsg());
+        assertEquals("优惠券不存在！", voucherOrderService.seckillVoucher(VOUCHER_ID + 1).getErrorMsg());
+        assertEquals(0, scriptCalls.get());
+        verify(seckillVoucherService, times(1)).getById(VOUCHER_ID + 1);
+    }
+
+    @Test
+    void idlePendingOfOtherConsumersIsClaimed() {
+        Duration idle = Duration.ofMinutes(10);
+        List<PendingMessage> messages = Arrays.asList(
+                pendingMessage("1-0", "old-host-0", idle),
+                pendingMessage("2-0", "node-0", idle),
+                pendingMessage("3-0", "node-1", Duration.ofSeconds(1)),
+                pendingMessage("4-0", "old-host-3", idle));
+        List<List<RecordId>> claims = new ArrayList<>();
+        FakeRedisService streamRedis = new FakeRedisService() {
+            @Override
+            public PendingMessages pending(String key, String group, Range<String> range, long count) {
+                return new PendingMessages(group, messages);
+            }
+
+            @Override
+            public List<RecordId> claim(String key, String group, String consumer, Duration minIdle, List<RecordId> ids) {
+                claims.add(ids);
+                return ids;
+            }
+        };
+        ReflectionTestUtils.setField(voucherOrderService, "redisService", streamRedis);
+        ReflectionTestUtils.setField(voucherOrderService, "claimIdleSeconds", 300L);
+
+        Integer claimed = ReflectionTestUtils.invokeMethod(voucherOrderService, "claimIdlePending", "node-0");
+        // 只接管其他消费者空闲超过阈值的消息
+        assertEquals(2, claimed);
+        assertEquals(Collections.singletonList(Arrays.asList(RecordId.of("1-0"), RecordId.of("4-0"))), claims);
+    }
+
+    private static PendingMessage pendingMessage(String id, String consumer, Duration idle) {
+        return new PendingMessage(RecordId.of(id), Consumer.from(SECKILL_ORDER_GROUP, consumer), idle, 1);
+    }
+
+    @Test
+    void failedOrderMessageReleasesShardStock() {
+        RedisPipeline pipeline = mock(RedisPipeline.class, RETURNS_SELF);
+        FakeRedisService shardedRedis = new FakeRedisService() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+                return (T) Long.valueOf(0);
+            }
+
+            @Override
+            public RecordId xadd(String key, Map<String, String> fields) {
+                throw new IllegalStateException("redis down");
+            }
+
+            @Override
+            public List<Object> pipelined(java.util.function.Consumer<RedisPipeline> commands) {
+                commands.accept(pipeline);
+                return Collections.emptyList();
+            }
+        };
+        SeckillStockShards stockShards = new SeckillStockShards();
+        ReflectionTestUtils.setField(stockShards, "redisService", shardedRedis);
+        ReflectionTestUtils.setField(stockShards, "shards", 4);
+        ReflectionTestUtils.setField(voucherOrderService, "redisService", shardedRedis);
+        ReflectionTestUtils.setField(voucherOrderService, "seckillStockShards", stockShards);
+
+        // 扣减成功但订单消息写入失败：返回失败，库存归还到主分片并释放下单资格
+        Result result = voucherOrderService.seckillVoucher(VOUCHER_ID);
+        assertFalse(result.getSuccess());
+        assertEquals("下单失败，请稍后再试", result.getErrorMsg());
+        verify(pipeline).increment(SECKILL_STOCK_KEY + "{" + VOUCHER_ID + ":1}", 1);
+        verify(pipeline).srem(SECKILL_ORDER_KEY + "{" + VOUCHER_ID + ":1}", "1");
+    }
+
+    @Test
+    void pendingListIsPersistedAndAcked() {
+        List<List<MapRecord<String, Object, Object>>> batches = new ArrayList<>(Arrays.asList(
+                Arrays.asList(orderRecord("1-0", 1, 100), orderRecord("2-0", 2, 101)),
+                Collections.emptyList()));
+        VoucherOrderServiceImpl service = persistence(batches);
+
+        ReflectionTestUtils.invokeMethod(service, "handlePendingList", "node-0");
+
+        // 重启后从 pending list 读取已投递未确认的消息，写入数据库后确认
+        assertEquals(Arrays.asList(ReadOffset.from("0"), ReadOffset.from("0")), readOffsets);
+        verify(service).saveBatch(argThat(orders -> orders.size() == 2));
+        assertEquals(Collections.singletonList(Arrays.asList(RecordId.of("1-0"), RecordId.of("2-0"))), acks);
+    }
+
+    @Test
+    void existingAndRepeatedOrdersAreSkipped() {
+        VoucherOrderServiceImpl service = persistence(new ArrayList<>());
+        // 用户 1 的订单已经写入过数据库
+        when(voucherOrderMapper.selectList(any())).thenReturn(Collections.singletonList(order(1, 99)));
+
+        ReflectionTestUtils.invokeMethod(service, "handleRecords", Arrays.asList(
+                orderRecord("1-0", 1, 100), orderRecord("2-0", 2, 101), orderRecord("3-0", 2, 102)));
+
+        ArgumentCaptor<Collection<VoucherOrder>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(service).saveBatch(captor.capture());
+        assertEquals(Collections.singletonList(101L),
+                captor.getValue().stream().map(VoucherOrder::getId).collect(Collectors.toList()));
+        assertEquals(1, acks.size());
+        assertEquals(3, acks.get(0).size());
+    }
+
+    @Test
+    void duplicateKeyIsTreatedAsHandled() {
+        VoucherOrderServiceImpl service = persistence(new ArrayList<>());
+        // 去重查询之后，其他消费者提交了同一个订单
+        when(voucherOrderMapper.selectList(any()))
+                .thenReturn(Collections.emptyList())
+                .thenReturn(Collections.singletonList(order(1, 100)));
+        doThrow(new DuplicateKeyException("uk_user_voucher")).when(service).saveBatch(anyCollection());
+
+        ReflectionTestUtils.invokeMethod(service, "handleRecords", Collections.singletonList(orderRecord("1-0", 1, 100)));
+
+        // 重新去重后没有需要写入的订单，消息正常确认
+        verify(service, times(1)).saveBatch(anyCollection());
+        assertEquals(Collections.singletonList(Collections.singletonList(RecordId.of("1-0"))), acks);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void batchIsWrittenWithOneUpdatePerVoucherAndAckedAfterCommit() {
+        VoucherOrderServiceImpl service = persistence(new ArrayList<>());
+        List<MapRecord<String, Object, Object>> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // 两张优惠券：70 单和 30 单
+            records.add(orderRecord(i + "-0", i, i < 70 ? VOUCHER_ID : VOUCHER_ID + 1, 1000 + i));
+        }
+
+        ReflectionTestUtils.invokeMethod(service, "handleRecords", records);
+
+        // 一次去重查询、一次批量插入，每张优惠券一条库存 UPDATE
+        verify(voucherOrderMapper, times(1)).selectList(any());
+        verify(service, times(1)).saveBatch(argThat(orders -> orders.size() == 100));
+        ArgumentCaptor<Wrapper<SeckillVoucher>> captor = ArgumentCaptor.forClass(Wrapper.class);
+        verify(seckillVoucherMapper, times(2)).update(isNull(), captor.capture());
+        assertEquals(new HashSet<>(Arrays.asList("stock = stock - 70", "stock = stock - 30")),
+                captor.getAllValues().stream().map(w -> ((Update<?, ?>) w).getSqlSet()).collect(Collectors.toSet()));
+        // 事务提交之后才确认消息
+        assertEquals(Arrays.asList("commit", "ack"), events);
+        assertEquals(100, acks.get(0).size());
+    }
+
+    @Test
+    void failedBatchIsNotAcked() {
+        VoucherOrderServiceImpl service = persistence(new ArrayList<>());
+        doThrow(new IllegalStateException("db down")).when(service).saveBatch(anyCollection());
+
+        assertThrows(IllegalStateException.class, () -> ReflectionTestUtils.invokeMethod(service, "handleRecords",
+                Collections.singletonList(orderRecord("1-0", 1, 100))));
+        // 消息留在 pending list 中等待重新处理
+        assertTrue(acks.isEmpty());
+    }
+
+    /**
+     * 订单写入数据库的测试环境：事务回调直接执行，saveBatch 由 spy 代替
+     * @param batches readGroup 依次返回的消息
+     */
+    @SuppressWarnings("unchecked")
+    private VoucherOrderServiceImpl persistence(List<List<MapRecord<String, Object, Object>>> batches) {
+        FakeRedisService streamRedis = new FakeRedisService() {
+            @Override
+            public List<MapRecord<String, Object, Object>> readGroup(String key, String group, String consumer,
+                                                                    long count, Duration block, ReadOffset offset) {
+                readOffsets.add(offset);
+                return batches.isEmpty() ? Collections.emptyList() : batches.remove(0);
+            }
+
+            @Override
+            public Long ack(String key, String group, RecordId... ids) {
+                acks.add(Arrays.asList(ids));
+                events.add("ack");
+                return (long) ids.length;
+            }
+        };
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        doAnswer(invocation -> {
+            invocation.<java.util.function.Consumer<Object>>getArgument(0).accept(null);
+            events.add("commit");
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        seckillVoucherMapper = mock(SeckillVoucherMapper.class);
+        when(seckillVoucherMapper.update(any(), any())).thenReturn(1);
+        when(seckillVoucherService.update()).thenAnswer(invocation -> new UpdateChainWrapper<>(seckillVoucherMapper));
+        voucherOrderMapper = mock(VoucherOrderMapper.class);
+
+        ReflectionTestUtils.setField(voucherOrderService, "redisService", streamRedis);
+        ReflectionTestUtils.setField(voucherOrderService, "transactionTemplate", transactionTemplate);
+        ReflectionTestUtils.setField(voucherOrderService, "baseMapper", voucherOrderMapper);
+        VoucherOrderServiceImpl service = spy(voucherOrderService);
+        doReturn(true).when(service).saveBatch(anyCollection());
+        return service;
+    }
+
+    private static MapRecord<String, Object, Object> orderRecord(String id, long userId, long orderId) {
+        return orderRecord(id, userId, VOUCHER_ID, orderId);
+    }
+
+    private static MapRecord<String, Object, Object> orderRecord(String id, long userId, long voucherId, long orderId) {
+        Map<Object, Object> fields = new HashMap<>();
+        fields.put("userId", String.valueOf(userId));
+        fields.put("voucherId", String.valueOf(voucherId));
+        fields.put("id", String.valueOf(orderId));
+        return MapRecord.<String, Object, Object>create(SECKILL_ORDER_STREAM, fields).withId(RecordId.of(id));
+    }
+
+    private static VoucherOrder order(long userId, long orderId) {
+        VoucherOrder order = new VoucherOrder();
+        order.setId(orderId);
+        order.setUserId(userId);
+        order.setVoucherId(VOUCHER_ID);
+        return order;
+    }
+}
@@ -0,0 +1,97 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+    private static final int INSERTIONS = 10_000_000;
+    private static final int PROBES = 1_000_000;
+    private static final double FPP = 0.01;
+
+    @Test
+    void noFalseNegativesAndFalsePositiveRateWithinTarget() {
+        int insertions = 100_000;
+        BloomFilter filter = new BloomFilter(insertions, FPP);
+        for (long id = 1; id <= insertions; id++) {
+            filter.put(id);
+        }
+        // 已插入的id一定命中
+        for (long id = 1; id <= insertions; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+        int falsePositives = 0;
+        for (long id = insertions + 1; id <= 2L * insertions; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        double fpp = (double) falsePositives / insertions;
+        assertTrue(fpp < FPP * 1.5, "误判率过高：" + fpp);
+    }
+
+    /**
+     * 基准测试，默认不执行：mvn test -Dredis.benchmark=true
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "redis.benchmark", matches = "true")
+    void lookupCostAndFalsePositiveRateAt10M() {
+        BloomFilter filter = new BloomFilter(INSERTIONS, FPP);
+        for (long id = 1; id <= INSERTIONS; id++) {
+            filter.put(id);
+        }
+
+        // 已插入的id一定命中
+        for (long id = 1; id <= INSERTIONS; id += 997) {
+            assertTrue(filter.mightContain(id));
+        }
+
+        // 预热后统计不存在id的误判率和单次查询耗时
+        int falsePositives = 0;
+        for (long id = INSERTIONS + 1; id <= INSERTIONS + PROBES; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        falsePositives = 0;
+        long start = System.nanoTime();
+        for (long id = 2L * INSERTIONS + 1; id <= 2L * INSERTIONS + PROBES; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        long nanosPerLookup = (System.nanoTime() - start) / PROBES;
+        double fpp = (double) falsePositives / PROBES;
+
+        System.out.printf("bloom filter: %d ids, %.1f MB, %d hashes, %d ns/lookup, fpp %.4f%n",
+                INSERTIONS, filter.bitSize() / 8.0 / 1024 / 1024, filter.hashCount(), nanosPerLookup, fpp);
+        assertTrue(fpp < FPP * 1.5, "误判率过高：" + fpp);
+        assertTrue(nanosPerLookup < 5_000, "单次查询耗时过高：" + nanosPerLookup + "ns");
+    }
+
+    @Test
+    void redisBitmapRoundTrip() {
+        BloomFilter filter = new BloomFilter(1000, FPP);
+        long[] offsets = filter.put(42L);
+
+        // 导出的字节与 Redis SETBIT 的位序一致：偏移量 n 位于第 n/8 字节的第 7-n%8 位
+        byte[] bitmap = filter.toByteArray();
+        for (long offset : offsets) {
+            assertNotEquals(0, bitmap[(int) (offset >>> 3)] & (1 << (7 - (offset & 7))));
+        }
+
+        // Redis 的 bitmap 长度可能不是 8 的整数倍
+        int last = 0;
+        for (long offset : offsets) {
+            last = Math.max(last, (int) (offset >>> 3));
+        }
+        byte[] trimmed = new byte[last + 1];
+        System.arraycopy(bitmap, 0, trimmed, 0, trimmed.length);
+        BloomFilter mirror = new BloomFilter(1000, FPP);
+        assertFalse(mirror.mightContain(42L));
+        mirror.merge(trimmed);
+        assertTrue(mirror.mightContain(42L));
+    }
+}
@@ -0,0 +1,137 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 单元测试用的内存版 RedisService，只实现测试用到的命令，忽略过期时间
+ */
+public class FakeRedisService extends RedisService {
+
+    protected final Map<String, String> strings = new ConcurrentHashMap<>();
+
+    protected final Map<String, Set<String>> sets = new ConcurrentHashMap<>();
+
+    /**
+     * 已发布的消息，格式为 channel:message
+     */
+    public final List<String> published = new CopyOnWriteArrayList<>();
+
+    private final Map<String, List<Consumer<String>>> subscribers = new ConcurrentHashMap<>();
+
+    @Override
+    public void set(String key, String value, long timeout, TimeUnit unit) {
+        strings.put(key, value);
+    }
+
+    @Override
+    public void set(String key, String value) {
+        strings.put(key, value);
+    }
+
+    @Override
+    public String get(String key) {
+        return strings.get(key);
+    }
+
+    @Override
+    public List<String> multiGet(Collection<String> keys) {
+        List<String> values = new ArrayList<>(keys.size());
+        keys.forEach(key -> values.add(strings.get(key)));
+        return values;
+    }
+
+    @Override
+    public void multiSet(Map<String, String> values, long timeout, TimeUnit unit) {
+        strings.putAll(values);
+    }
+
+    @Override
+    public void delete(String key) {
+        strings.remove(key);
+    }
+
+    @Override
+    public boolean unlock(String key, String token) {
+        return strings.remove(key, token);
+    }
+
+    @Override
+    public Boolean setIfNotExist(String key, String value) {
+        return strings.putIfAbsent(key, value) == null;
+    }
+
+    @Override
+    public Boolean setIfNotExist(String key, String value, long timeout, TimeUnit unit) {
+        return strings.putIfAbsent(key, value) == null;
+    }
+
+    @Override
+    public Long increment(String key, long val) {
+        return Long.parseLong(strings.merge(key, String.valueOf(val),
+                (old, delta) -> String.valueOf(Long.parseLong(old) + Long.parseLong(delta))));
+    }
+
+    @Override
+    public Boolean hasKey(String key) {
+        return strings.containsKey(key);
+    }
+
+    @Override
+    public Long sadd(String key, String value) {
+        return sets.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(value) ? 1L : 0L;
+    }
+
+    @Override
+    public Long srem(String key, String value) {
+        Set<String> set = sets.get(key);
+        return set != null && set.remove(value) ? 1L : 0L;
+    }
+
+    @Override
+    public Boolean isMember(String key, String member) {
+        Set<String> set = sets.get(key);
+        return set != null && set.contains(member);
+    }
+
+    /**
+     * HyperLogLog 用集合模拟，计数是精确值
+     */
+    @Override
+    public void pfaddAll(Map<String, ? extends Collection<String>> values, long timeout, TimeUnit unit) {
+        values.forEach((key, members) -> sets.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).addAll(members));
+    }
+
+    @Override
+    public Long pfcount(String... keys) {
+        Set<String> union = new HashSet<>();
+        for (String key : keys) {
+            union.addAll(sets.getOrDefault(key, Collections.emptySet()));
+        }
+        return (long) union.size();
+    }
+
+    @Override
+    public void setBits(String key, long[] offsets) {
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+        published.add(channel + ":" + message);
+        subscribers.getOrDefault(channel, Collections.emptyList()).forEach(handler -> handler.accept(message));
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<String> handler) {
+        subscribers.computeIfAbsent(channel, k -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+}
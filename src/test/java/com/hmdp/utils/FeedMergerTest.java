@@ -0,0 +1,121 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ScrollResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeedMergerTest {
+
+    private static final int PAGE_SIZE = 10;
+
+    private static final Comparator<ZSetOperations.TypedTuple<String>> REDIS_ORDER =
+            Comparator.<ZSetOperations.TypedTuple<String>>comparingDouble(ZSetOperations.TypedTuple::getScore)
+                    .thenComparing(ZSetOperations.TypedTuple::getValue)
+                    .reversed();
+
+    @Test
+    void scrollingMergedSourcesMatchesSingleSortedSet() {
+        // 21 路来源，时间戳大量重复，覆盖跨页的同分数元素
+        Random random = new Random(42);
+        List<List<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>();
+        List<ZSetOperations.TypedTuple<String>> all = new ArrayList<>();
+        int id = 0;
+        for (int s = 0; s < 21; s++) {
+            List<ZSetOperations.TypedTuple<String>> source = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                ZSetOperations.TypedTuple<String> tuple = new DefaultTypedTuple<>(String.valueOf(100000 + id++), (double) (1000 + random.nextInt(40)));
+                source.add(tuple);
+                all.add(tuple);
+            }
+            source.sort(REDIS_ORDER);
+            sources.add(source);
+        }
+        all.sort(REDIS_ORDER);
+
+        List<String> scrolled = new ArrayList<>();
+        long max = Long.MAX_VALUE;
+        int offset = 0;
+        while (true) {
+            long m = max;
+            int o = offset;
+            List<Set<ZSetOperations.TypedTuple<String>>> page = sources.stream()
+                    .map(source -> zrevrangeByScore(source, m, o + PAGE_SIZE))
+                    .collect(Collectors.toList());
+            ScrollResult r = FeedMerger.merge(page, max, offset, PAGE_SIZE);
+            @SuppressWarnings("unchecked")
+            List<String> ids = (List<String>) r.getList();
+            if (ids.isEmpty()) {
+                break;
+            }
+            scrolled.addAll(ids);
+            max = r.getMinTime();
+            offset = r.getOffset();
+        }
+        assertEquals(all.stream().map(ZSetOperations.TypedTuple::getValue).collect(Collectors.toList()), scrolled);
+    }
+
+    /**
+     * 推模式与推拉结合的写放大和读开销对比
+     * 写：大V发布一条博文，推模式写入每个粉丝的收件箱，推拉结合只写自己的发件箱
+     * 读：推拉结合需要额外读取关注的大V发件箱并归并，多个来源在同一次 pipeline 中读取，网络往返次数不变
+     * 基准测试，默认不执行：mvn test -Dredis.benchmark=true
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "redis.benchmark", matches = "true")
+    void writeAmplificationAndReadCostAgainstPurePush() {
+        long followers = 1_000_000;
+        long pushWrites = followers;
+        long hybridWrites = 1;
+
+        int celebritiesFollowed = 20;
+        List<Set<ZSetOperations.TypedTuple<String>>> pushSources = Collections.singletonList(source(0, PAGE_SIZE));
+        List<Set<ZSetOperations.TypedTuple<String>>> hybridSources = new ArrayList<>();
+        for (int s = 0; s <= celebritiesFollowed; s++) {
+            hybridSources.add(source(s, PAGE_SIZE));
+        }
+        long pushNanos = timeMerge(pushSources);
+        long hybridNanos = timeMerge(hybridSources);
+
+        System.out.printf("feed: write amplification push %d vs hybrid %d ZADD; merge %d ns (1 source) vs %d ns (%d sources)%n",
+                pushWrites, hybridWrites, pushNanos, hybridNanos, celebritiesFollowed + 1);
+        assertTrue(hybridNanos < 1_000_000, "归并耗时过高：" + hybridNanos + "ns");
+    }
+
+    private static long timeMerge(List<Set<ZSetOperations.TypedTuple<String>>> sources) {
+        int rounds = 200_000;
+        // 预热
+        for (int i = 0; i < rounds; i++) {
+            FeedMerger.merge(sources, Long.MAX_VALUE, 0, PAGE_SIZE);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            FeedMerger.merge(sources, Long.MAX_VALUE, 0, PAGE_SIZE);
+        }
+        return (System.nanoTime() - start) / rounds;
+    }
+
+    private static Set<ZSetOperations.TypedTuple<String>> source(int s, int size) {
+        Set<ZSetOperations.TypedTuple<String>> source = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            source.add(new DefaultTypedTuple<>(s + ":" + i, (double) (System.currentTimeMillis() - i * 1000L - s)));
+        }
+        return source;
+    }
+
+    /**
+     * 模拟 ZREVRANGEBYSCORE key max 0 LIMIT 0 count
+     */
+    private static Set<ZSetOperations.TypedTuple<String>> zrevrangeByScore(List<ZSetOperations.TypedTuple<String>> sorted, long max, int count) {
+        return sorted.stream()
+                .filter(tuple -> tuple.getScore() <= max)
+                .limit(count)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+}
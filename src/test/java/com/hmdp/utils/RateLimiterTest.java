@@ -0,0 +1,142 @@
+package com.hmdp.utils;
+
+import com.hmdp.aop.RateLimit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+
+    @RateLimit(by = RateLimit.Dimension.PHONE, permits = 1, period = 60)
+    @RateLimit(by = RateLimit.Dimension.IP, algorithm = RateLimit.Algorithm.TOKEN_BUCKET, permits = 5, period = 1)
+    void rules() {
+    }
+
+    @Test
+    void rejectedKeyIsFilteredLocallyUntilRetryAfter() throws Exception {
+        AtomicInteger scriptCalls = new AtomicInteger();
+        AtomicLong result = new AtomicLong(0);
+        FakeRedisService redisService = new FakeRedisService() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+                scriptCalls.incrementAndGet();
+                return (T) Arrays.asList(result.get() > 0 ? 0L : -1L, result.get());
+            }
+        };
+        RateLimiter rateLimiter = rateLimiter(redisService);
+        RateLimit rule = rule(0);
+
+        assertEquals(0, rateLimiter.tryAcquire("phone:1", rule));
+        // 脚本返回需要等待 60 秒，之后的请求在本地拒绝
+        result.set(60_000);
+        assertTrue(rateLimiter.tryAcquire("phone:1", rule) > 0);
+        for (int i = 0; i < 10_000; i++) {
+            long wait = rateLimiter.tryAcquire("phone:1", rule);
+            assertTrue(wait > 0 && wait <= 60_000);
+        }
+        assertEquals(2, scriptCalls.get());
+        // 其他 key 不受影响
+        result.set(0);
+        assertEquals(0, rateLimiter.tryAcquire("phone:2", rule));
+        assertEquals(3, scriptCalls.get());
+    }
+
+    @Test
+    void allRulesAreCheckedInOneScriptCall() throws Exception {
+        List<List<String>> calls = new ArrayList<>();
+        List<Object[]> callArgs = new ArrayList<>();
+        FakeRedisService redisService = new FakeRedisService() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+                calls.add(keys);
+                callArgs.add(args);
+                // 最后一条规则拒绝，需要等待 1500 毫秒
+                return (T) Arrays.asList(keys.size() - 1L, 1500L);
+            }
+        };
+        RateLimiter rateLimiter = rateLimiter(redisService);
+
+        RateLimiter.Rejection rejection = rateLimiter.tryAcquire(Arrays.asList("phone:1", "ip:1"), Arrays.asList(rule(0), rule(1)));
+
+        assertEquals(1, rejection.getIndex());
+        assertEquals(1500, rejection.getWait());
+        assertEquals(Collections.singletonList(Arrays.asList(
+                RedisConstants.RATE_LIMIT_KEY + "phone:1", RedisConstants.RATE_LIMIT_KEY + "ip:1")), calls);
+        // 请求标识 + 每条规则的算法和参数
+        assertEquals(Arrays.asList("window", "60000", "1", "bucket", "5", "200.0"),
+                Arrays.asList(callArgs.get(0)).subList(1, 7));
+        // 只有被拒绝的规则在本地记录，其他规则的 key 仍然访问 Redis
+        assertEquals(1, rateLimiter.tryAcquire(Arrays.asList("phone:2", "ip:1"), Arrays.asList(rule(0), rule(1))).getIndex());
+        assertEquals(1, calls.size());
+        rateLimiter.tryAcquire("phone:1", rule(0));
+        assertEquals(2, calls.size());
+    }
+
+    /**
+     * 验证 lua 脚本的限流结果，需要本地 Redis：mvn test -Dredis.benchmark=true
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "redis.benchmark", matches = "true")
+    void scriptsLimitAgainstRedis() throws Exception {
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        factory.afterPropertiesSet();
+        RedisService redisService = new RedisService();
+        ReflectionTestUtils.setField(redisService, "stringRedisTemplate", new StringRedisTemplate(factory));
+        try {
+            String key = "test:" + System.nanoTime();
+            // 滑动窗口：60 秒内只放行 1 次
+            assertEquals(0, rateLimiter(redisService).tryAcquire(key + ":window", rule(0)));
+            long wait = rateLimiter(redisService).tryAcquire(key + ":window", rule(0));
+            assertTrue(wait > 59_000 && wait <= 60_000, "wait " + wait);
+            // 令牌桶：容量 5，之后每 200 毫秒生成一个
+            int passed = 0;
+            for (int i = 0; i < 20; i++) {
+                if (rateLimiter(redisService).tryAcquire(key + ":bucket", rule(1)) == 0) {
+                    passed++;
+                }
+            }
+            assertEquals(5, passed);
+            Thread.sleep(450);
+            assertEquals(0, rateLimiter(redisService).tryAcquire(key + ":bucket", rule(1)));
+            assertEquals(0, rateLimiter(redisService).tryAcquire(key + ":bucket", rule(1)));
+            assertTrue(rateLimiter(redisService).tryAcquire(key + ":bucket", rule(1)) > 0);
+            // 多条规则：第二条拒绝时第一条不消耗许可
+            RateLimiter limiter = rateLimiter(redisService);
+            assertNotNull(limiter.tryAcquire(Arrays.asList(key + ":free", key + ":window"), Arrays.asList(rule(1), rule(0))));
+            assertEquals(Boolean.FALSE, redisService.hasKey(RedisConstants.RATE_LIMIT_KEY + key + ":free"));
+            assertNull(limiter.tryAcquire(Collections.singletonList(key + ":free"), Collections.singletonList(rule(1))));
+            redisService.delete(RedisConstants.RATE_LIMIT_KEY + key + ":window");
+            redisService.delete(RedisConstants.RATE_LIMIT_KEY + key + ":bucket");
+            redisService.delete(RedisConstants.RATE_LIMIT_KEY + key + ":free");
+        } finally {
+            factory.destroy();
+        }
+    }
+
+    private static RateLimiter rateLimiter(RedisService redisService) {
+        RateLimiter rateLimiter = new RateLimiter();
+        ReflectionTestUtils.setField(rateLimiter, "redisService", redisService);
+        ReflectionTestUtils.setField(rateLimiter, "localMaximumSize", 1000L);
+        rateLimiter.createCache();
+        return rateLimiter;
+    }
+
+    private static RateLimit rule(int index) throws NoSuchMethodException {
+        return RateLimiterTest.class.getDeclaredMethod("rules").getAnnotationsByType(RateLimit.class)[index];
+    }
+}
@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedisIdWorkerTest {
+
+    private static final int THREADS = 16;
+    private static final int IDS_PER_THREAD = 100_000;
+    private static final int BENCHMARK_IDS = 10_000_000;
+
+    private final AtomicInteger redisCalls = new AtomicInteger();
+    private RedisIdWorker idWorker;
+
+    @BeforeEach
+    void setUp() {
+        FakeRedisService redisService = new FakeRedisService() {
+            @Override
+            public Long increment(String key, long val) {
+                redisCalls.incrementAndGet();
+                return super.increment(key, val);
+            }
+        };
+        idWorker = new RedisIdWorker();
+        ReflectionTestUtils.setField(idWorker, "redisService", redisService);
+    }
+
+    @Test
+    void idsAreUniqueAcrossThreads() throws InterruptedException {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                    ids.add(idWorker.nextId("order"));
+                }
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        pool.shutdown();
+
+        assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+        // 绝大部分id在内存中分配，每个号段只访问一次 Redis
+        assertTrue(redisCalls.get() <= THREADS * IDS_PER_THREAD / 1000 + 1, "Redis 访问次数过多：" + redisCalls.get());
+    }
+
+    @Test
+    void idsAreTimeOrdered() {
+        long first = idWorker.nextId("order");
+        long second = idWorker.nextId("order");
+        assertTrue(second > first);
+        // 高 32 位为距开始时间的秒数
+        long seconds = first >>> 32;
+        assertTrue(Math.abs(System.currentTimeMillis() / 1000 - 1640995200L - seconds) <= 1);
+    }
+
+    /**
+     * 基准测试，默认不执行：mvn test -Dredis.benchmark=true
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "redis.benchmark", matches = "true")
+    void singleThreadThroughput() {
+        // 预热
+        for (int i = 0; i < BENCHMARK_IDS; i++) {
+            idWorker.nextId("bench");
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_IDS; i++) {
+            idWorker.nextId("bench");
+        }
+        long elapsed = System.nanoTime() - start;
+        double idsPerSecond = BENCHMARK_IDS * 1e9 / elapsed;
+
+        System.out.printf("redis id worker: %.1f M ids/s/thread, %d redis calls%n",
+                idsPerSecond / 1e6, redisCalls.get());
+        assertTrue(idsPerSecond > 1_000_000, "生成速度过低：" + idsPerSecond);
+    }
+}
@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.mockito.InOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RedisPipelineTest {
+    private static final Logger log = LoggerFactory.getLogger(RedisPipelineTest.class);
+
+    @Test
+    void commandsAreSentInOrderOnOneConnection() {
+        RedisConnection connection = mock(RedisConnection.class);
+        Map<String, Object> user = new LinkedHashMap<>();
+        user.put("id", 1L);
+        user.put("nickName", "user_1");
+
+        new RedisPipeline(connection)
+                .hset("login:token:t", user)
+                .expire("login:token:t", 30, TimeUnit.MINUTES)
+                .zadd("shop:type:", "{}", 1);
+
+        byte[] key = "login:token:t".getBytes(StandardCharsets.UTF_8);
+        InOrder inOrder = inOrder(connection);
+        inOrder.verify(connection).hMSet(eq(key), argThat(hash -> hash.size() == 2));
+        inOrder.verify(connection).pExpire(key, TimeUnit.MINUTES.toMillis(30));
+        inOrder.verify(connection).zAdd(eq("shop:type:".getBytes(StandardCharsets.UTF_8)), eq(1.0), any(byte[].class));
+        verifyNoMoreInteractions(connection);
+    }
+
+    @Test
+    void transactionWrapsCommandsInMultiExec() {
+        RedisConnection connection = mock(RedisConnection.class);
+        when(connection.exec()).thenReturn(Arrays.asList(true, 2L));
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.execute(any(RedisCallback.class))).thenAnswer(invocation ->
+                invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection));
+        RedisService redisService = new RedisService();
+        ReflectionTestUtils.setField(redisService, "stringRedisTemplate", template);
+
+        List<Object> results = redisService.transaction(tx -> tx
+                .rename("shop:type:tmp", "shop:type")
+                .increment("shop:type:version", 1));
+
+        // MULTI 和 EXEC 之间的命令在同一个连接上按顺序入队，返回 EXEC 的结果
+        assertEquals(Arrays.asList(true, 2L), results);
+        InOrder inOrder = inOrder(connection);
+        inOrder.verify(connection).multi();
+        inOrder.verify(connection).rename("shop:type:tmp".getBytes(StandardCharsets.UTF_8), "shop:type".getBytes(StandardCharsets.UTF_8));
+        inOrder.verify(connection).incrBy("shop:type:version".getBytes(StandardCharsets.UTF_8), 1);
+        inOrder.verify(connection).exec();
+        verifyNoMoreInteractions(connection);
+        // 不经过 pipeline
+        verify(template, never()).executePipelined(any(RedisCallback.class));
+    }
+
+    /**
+     * 逐条执行与 pipeline 的往返次数和耗时对比，需要本地 Redis：mvn test -Dredis.benchmark=true
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "redis.benchmark", matches = "true")
+    void benchmarkRoundTripsSaved() {
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        factory.afterPropertiesSet();
+        RedisService redisService = new RedisService();
+        ReflectionTestUtils.setField(redisService, "stringRedisTemplate", new StringRedisTemplate(factory));
+        String prefix = "bench:pipeline:" + System.nanoTime() + ":";
+        int logins = 2_000;
+        int types = 10;
+        Map<String, Object> user = new HashMap<>();
+        user.put("id", "1");
+        user.put("nickName", "user_1");
+        user.put("icon", "");
+        try {
+            // 登录：HSET + EXPIRE 两次往返 vs 一次
+            long start = System.nanoTime();
+            for (int i = 0; i < logins; i++) {
+                redisService.hset(prefix + "a:" + i, user);
+                redisService.setExpire(prefix + "a:" + i, 30, TimeUnit.MINUTES);
+            }
+            long separate = (System.nanoTime() - start) / logins;
+            start = System.nanoTime();
+            for (int i = 0; i < logins; i++) {
+                redisService.hset(prefix + "b:" + i, user, 30, TimeUnit.MINUTES);
+            }
+            long pipelined = (System.nanoTime() - start) / logins;
+            assertTrue(redisService.getExpire(prefix + "b:0") > 0);
+
+            // 商铺类型：每个类型一次 ZADD vs 一次 pipeline
+            start = System.nanoTime();
+            for (int i = 0; i < logins; i++) {
+                for (int t = 0; t < types; t++) {
+                    redisService.zadd(prefix + "c", "type" + t, t);
+                }
+            }
+            long zaddLoop = (System.nanoTime() - start) / logins;
+            start = System.nanoTime();
+            for (int i = 0; i < logins; i++) {
+                redisService.pipelined(pipeline -> {
+                    for (int t = 0; t < types; t++) {
+                        pipeline.zadd(prefix + "d", "type" + t, t);
+                    }
+                });
+            }
+            long zaddPipelined = (System.nanoTime() - start) / logins;
+
+            log.info("pipeline: login 2 round trips {} ns vs 1 round trip {} ns; shop types {} round trips {} ns vs 1 round trip {} ns",
+                    separate, pipelined, types, zaddLoop, zaddPipelined);
+            assertTrue(pipelined < separate);
+            assertTrue(zaddPipelined < zaddLoop);
+        } finally {
+            RedisServiceScanTest.deleteByPattern(redisService, prefix + "*");
+            factory.destroy();
+        }
+    }
+}
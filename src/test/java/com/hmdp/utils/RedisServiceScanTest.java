@@ -0,0 +1,99 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SCAN 与 KEYS 的单次调用耗时对比，需要本地 Redis：mvn test -Dredis.benchmark=true
+ */
+@EnabledIfSystemProperty(named = "redis.benchmark", matches = "true")
+class RedisServiceScanTest {
+
+    private static final int KEYS = 1_000_000;
+
+    @Test
+    void scanKeepsEachCallShortOnMillionKeys() {
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        factory.afterPropertiesSet();
+        StringRedisTemplate template = new StringRedisTemplate(factory);
+        RedisService redisService = new RedisService();
+        ReflectionTestUtils.setField(redisService, "stringRedisTemplate", template);
+        String prefix = "bench:scan:" + System.nanoTime() + ":";
+        try {
+            // 1.分批写入 100 万个key
+            for (int from = 0; from < KEYS; from += 10_000) {
+                int start = from;
+                redisService.pipelined(pipeline -> {
+                    for (int i = start; i < start + 10_000; i++) {
+                        pipeline.set(prefix + i, "1");
+                    }
+                });
+            }
+
+            // 2.KEYS 一次阻塞遍历全部key
+            long begin = System.nanoTime();
+            Set<String> all = template.keys(prefix + "*");
+            long keysMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            assertEquals(KEYS, all.size());
+
+            // 3.SCAN 每批之间的最大间隔近似为单次 SCAN 的耗时
+            long maxGapNanos = 0;
+            int scanned = 0;
+            try (Stream<String> keys = redisService.scan(prefix + "*")) {
+                Iterator<String> it = keys.iterator();
+                long last = System.nanoTime();
+                while (it.hasNext()) {
+                    it.next();
+                    scanned++;
+                    long now = System.nanoTime();
+                    maxGapNanos = Math.max(maxGapNanos, now - last);
+                    last = now;
+                }
+            }
+            long maxGapMillis = TimeUnit.NANOSECONDS.toMillis(maxGapNanos);
+            System.out.printf("scan: %d keys, KEYS blocks %d ms, longest SCAN call %d ms%n", KEYS, keysMillis, maxGapMillis);
+            assertTrue(scanned >= KEYS);
+            assertTrue(maxGapMillis * 10 < keysMillis, "单次 SCAN 耗时 " + maxGapMillis + " ms");
+
+            // 4.边迭代边分批删除
+            assertTrue(deleteByPattern(redisService, prefix + "*") >= KEYS);
+            assertTrue(redisService.keysPrefix(prefix).isEmpty());
+        } finally {
+            deleteByPattern(redisService, prefix + "*");
+            factory.destroy();
+        }
+    }
+
+    /**
+     * 清理测试数据：边迭代边分批删除，返回删除的key数
+     */
+    static long deleteByPattern(RedisService redisService, String pattern) {
+        long total = 0;
+        List<String> batch = new ArrayList<>();
+        try (Stream<String> keys = redisService.scan(pattern)) {
+            Iterator<String> it = keys.iterator();
+            while (it.hasNext()) {
+                batch.add(it.next());
+                if (batch.size() >= 1000 || !it.hasNext()) {
+                    redisService.delete(batch);
+                    total += batch.size();
+                    batch = new ArrayList<>();
+                }
+            }
+        }
+        return total;
+    }
+}
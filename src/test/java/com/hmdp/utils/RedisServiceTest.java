@@ -0,0 +1,108 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanCursor;
+import org.springframework.data.redis.core.ScanIteration;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 用 mock 的连接校验 RedisService 发出的命令，不需要 Redis
+ */
+class RedisServiceTest {
+
+    private RedisConnection connection;
+    private StringRedisTemplate template;
+    private RedisService redisService;
+
+    @BeforeEach
+    void setUp() {
+        connection = mock(RedisConnection.class);
+        template = mock(StringRedisTemplate.class);
+        // pipeline 回调直接在 mock 连接上执行
+        when(template.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            RedisCallback<?> callback = invocation.getArgument(0);
+            callback.doInRedis(connection);
+            return Collections.emptyList();
+        });
+        redisService = new RedisService();
+        ReflectionTestUtils.setField(redisService, "stringRedisTemplate", template);
+    }
+
+    @Test
+    void zaddEachTrimsEveryInboxInOnePipeline() {
+        redisService.zaddEach(Arrays.asList("feed:1", "feed:2"), "7", 100, 500);
+
+        verify(template, times(1)).executePipelined(any(RedisCallback.class));
+        InOrder inOrder = inOrder(connection);
+        for (String key : Arrays.asList("feed:1", "feed:2")) {
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            inOrder.verify(connection).zAdd(rawKey, 100, "7".getBytes(StandardCharsets.UTF_8));
+            // 只保留分数最高的 500 个 ZREMRANGEBYRANK key 0 -501
+            inOrder.verify(connection).zRemRange(rawKey, 0, -501);
+        }
+    }
+
+    @Test
+    void scanFollowsCursorLazilyUntilZero() throws Exception {
+        // 模拟三次 SCAN：游标 0 -> 5 -> 9 -> 0，中间一批为空
+        Map<Long, ScanIteration<byte[]>> pages = new HashMap<>();
+        pages.put(0L, new ScanIteration<>(5, raw("a", "b")));
+        pages.put(5L, new ScanIteration<>(9, Collections.emptyList()));
+        pages.put(9L, new ScanIteration<>(0, raw("c")));
+        List<Long> scanned = new ArrayList<>();
+        AtomicReference<ScanCursor<byte[]>> cursor = new AtomicReference<>();
+        when(connection.scan(any(ScanOptions.class))).thenAnswer(invocation -> {
+            cursor.set(new ScanCursor<byte[]>(invocation.getArgument(0)) {
+                @Override
+                protected ScanIteration<byte[]> doScan(long cursorId, ScanOptions options) {
+                    scanned.add(cursorId);
+                    return pages.get(cursorId);
+                }
+            });
+            return cursor.get().open();
+        });
+        when(template.executeWithStickyConnection(any())).thenAnswer(invocation ->
+                invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection));
+
+        try (Stream<String> keys = redisService.scan("cache:*", 2)) {
+            Iterator<String> it = keys.iterator();
+            // 消费完第一批之前不发送下一次 SCAN
+            assertEquals("a", it.next());
+            assertEquals(Collections.singletonList(0L), scanned);
+            assertEquals("b", it.next());
+            assertEquals("c", it.next());
+            assertFalse(it.hasNext());
+        }
+        assertEquals(Arrays.asList(0L, 5L, 9L), scanned);
+        // 关闭 Stream 后释放游标
+        assertTrue(cursor.get().isClosed());
+        ArgumentCaptor<ScanOptions> options = ArgumentCaptor.forClass(ScanOptions.class);
+        verify(connection).scan(options.capture());
+        assertEquals("cache:*", options.getValue().getPattern());
+        assertEquals(2L, options.getValue().getCount());
+    }
+
+    private static List<byte[]> raw(String... keys) {
+        List<byte[]> raw = new ArrayList<>(keys.length);
+        for (String key : keys) {
+            raw.add(key.getBytes(StandardCharsets.UTF_8));
+        }
+        return raw;
+    }
+}
@@ -0,0 +1,170 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongUnaryOperator;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeckillStockShardsTest {
+
+    private static final long VOUCHER_ID = 7L;
+    private static final int SHARDS = 8;
+    private static final int THREADS = 32;
+
+    @Test
+    void preloadSplitsStockAcrossShards() {
+        FakeRedisService redisService = new FakeRedisService();
+        shards(redisService, SHARDS).preload(VOUCHER_ID, 103);
+
+        int total = 0;
+        for (int i = 0; i < SHARDS; i++) {
+            int shardStock = Integer.parseInt(redisService.get(SECKILL_STOCK_KEY + "{" + VOUCHER_ID + ":" + i + "}"));
+            assertTrue(shardStock == 12 || shardStock == 13);
+            total += shardStock;
+        }
+        assertEquals(103, total);
+    }
+
+    @Test
+    void neverOversellsAndFallsBackToOtherShards() throws InterruptedException {
+        FakeRedisService redisService = new ScriptedRedisService();
+        SeckillStockShards stockShards = shards(redisService, SHARDS);
+        int stock = 100;
+        stockShards.preload(VOUCHER_ID, stock);
+
+        // 用户id都路由到 0 号分片，0 号分片售罄后必须从其他分片扣减
+        int users = 1000;
+        AtomicInteger success = new AtomicInteger();
+        AtomicInteger duplicate = new AtomicInteger();
+        run(users, i -> {
+            // 每个用户请求两次，只能成功一次
+            for (int j = 0; j < 2; j++) {
+                int r = stockShards.deduct(VOUCHER_ID, i * SHARDS);
+                if (r == 0) {
+                    success.incrementAndGet();
+                } else if (r == 2) {
+                    duplicate.incrementAndGet();
+                }
+            }
+            return 0;
+        });
+
+        assertEquals(stock, success.get());
+        // 只有抢到库存的用户第二次请求会被判定为重复下单
+        assertEquals(stock, duplicate.get());
+        for (int i = 0; i < SHARDS; i++) {
+            assertEquals("0", redisService.get(SECKILL_STOCK_KEY + "{" + VOUCHER_ID + ":" + i + "}"));
+        }
+        // 售罄后释放了下单资格，只有抢到库存的用户留在一人一单集合中
+        assertEquals(stock, redisService.sets.get(SECKILL_ORDER_KEY + "{" + VOUCHER_ID + ":0}").size());
+    }
+
+    /**
+     * 对比单key lua 脚本与分片库存的吞吐，需要本地 Redis：mvn test -Dredis.benchmark=true
+     * 单机 Redis 上所有分片仍由同一个线程执行，只有集群模式下分片落在不同节点才会有吞吐提升
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "redis.benchmark", matches = "true")
+    void benchmarkAgainstSingleKeyScript() throws InterruptedException {
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        factory.afterPropertiesSet();
+        RedisService redisService = new RedisService();
+        ReflectionTestUtils.setField(redisService, "stringRedisTemplate", new StringRedisTemplate(factory));
+        int stock = 10_000;
+        int requests = 200_000;
+        try {
+            DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+            script.setLocation(new ClassPathResource("seckill.lua"));
+            script.setResultType(Long.class);
+            long singleVoucher = System.nanoTime();
+            redisService.set(SECKILL_STOCK_KEY + singleVoucher, String.valueOf(stock));
+            double single = throughput(requests, i -> execute(redisService, script,
+                    Arrays.asList(SECKILL_STOCK_KEY + singleVoucher, SECKILL_ORDER_KEY + singleVoucher, SECKILL_ORDER_STREAM + ":bench"),
+                    i, singleVoucher));
+
+            SeckillStockShards stockShards = shards(redisService, SHARDS);
+            long shardedVoucher = singleVoucher + 1;
+            stockShards.preload(shardedVoucher, stock);
+            double sharded = throughput(requests, i -> stockShards.deduct(shardedVoucher, i));
+
+            System.out.printf("seckill stock: single key %.0f req/s, %d shards %.0f req/s%n", single, SHARDS, sharded);
+        } finally {
+            factory.destroy();
+        }
+    }
+
+    private static long execute(RedisService redisService, RedisScript<Long> script, List<String> keys, long userId, long voucherId) {
+        Long r = redisService.execute(script, keys, String.valueOf(userId), String.valueOf(voucherId), String.valueOf(userId));
+        return r == null ? 1 : r;
+    }
+
+    private static double throughput(int requests, LongUnaryOperator request) throws InterruptedException {
+        long start = System.nanoTime();
+        run(requests, request);
+        return requests * 1e9 / (System.nanoTime() - start);
+    }
+
+    private static void run(int requests, LongUnaryOperator request) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(requests);
+        for (long i = 0; i < requests; i++) {
+            long userId = i;
+            pool.execute(() -> {
+                try {
+                    request.applyAsLong(userId);
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        pool.shutdown();
+    }
+
+    private static SeckillStockShards shards(RedisService redisService, int shards) {
+        SeckillStockShards stockShards = new SeckillStockShards();
+        ReflectionTestUtils.setField(stockShards, "redisService", redisService);
+        ReflectionTestUtils.setField(stockShards, "shards", shards);
+        return stockShards;
+    }
+
+    /**
+     * 用 Java 模拟 seckill_stock.lua 的语义，脚本在 Redis 中串行执行，这里用同步方法代替
+     */
+    private static class ScriptedRedisService extends FakeRedisService {
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+            String userId = (String) args[0];
+            if (keys.size() == 2 && isMember(keys.get(1), userId)) {
+                return (T) Long.valueOf(2);
+            }
+            String stock = get(keys.get(0));
+            if (stock == null || Long.parseLong(stock) <= 0) {
+                return (T) Long.valueOf(1);
+            }
+            set(keys.get(0), String.valueOf(Long.parseLong(stock) - 1));
+            if (keys.size() == 2) {
+                sadd(keys.get(1), userId);
+            }
+            return (T) Long.valueOf(0);
+        }
+    }
+}
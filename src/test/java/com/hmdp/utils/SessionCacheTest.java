@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TOKENS_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class SessionCacheTest {
+
+    private RedisService redisService;
+    private SessionCache sessionCache;
+    private RedisPipeline pipeline;
+    private long pttl;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, String> user = new HashMap<>();
+        user.put("id", "1");
+        user.put("nickName", "user_1");
+        redisService = mock(RedisService.class);
+        pipeline = mock(RedisPipeline.class, RETURNS_SELF);
+        when(redisService.pipelined(any())).thenAnswer(invocation -> {
+            Consumer<RedisPipeline> commands = invocation.getArgument(0);
+            commands.accept(pipeline);
+            return Arrays.asList(user, pttl);
+        });
+
+        sessionCache = new SessionCache();
+        ReflectionTestUtils.setField(sessionCache, "redisService", redisService);
+        ReflectionTestUtils.setField(sessionCache, "localTtlSeconds", 10L);
+        ReflectionTestUtils.setField(sessionCache, "localMaximumSize", 100L);
+        ReflectionTestUtils.setField(sessionCache, "refreshThresholdMinutes", LOGIN_USER_TTL - 24 * 60);
+        sessionCache.createCache();
+    }
+
+    @Test
+    void freshSessionIsServedLocallyWithoutRefresh() {
+        pttl = TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        for (int i = 0; i < 1000; i++) {
+            UserDTO user = sessionCache.get("t1");
+            assertEquals(1L, user.getId());
+            assertEquals("user_1", user.getNickName());
+        }
+        flushRefresh();
+        // 只有首次加载访问 Redis，剩余有效期充足时不续期
+        verify(redisService, times(1)).pipelined(any());
+    }
+
+    @Test
+    void expiringSessionIsRefreshedOnceInBatch() {
+        pttl = TimeUnit.DAYS.toMillis(3);
+        for (int i = 0; i < 1000; i++) {
+            sessionCache.get("t1");
+        }
+        flushRefresh();
+        flushRefresh();
+        // 一次加载 + 一次批量续期
+        verify(redisService, times(2)).pipelined(any());
+    }
+
+    @Test
+    void refreshExtendsTokenIndexTogetherWithToken() {
+        // 登录时 token 和索引的有效期相同，之后只续期 token 的话，索引会先于 token 过期，登出所有设备时漏掉该 token
+        pttl = TimeUnit.DAYS.toMillis(1);
+        sessionCache.get("t1");
+        sessionCache.get("t2");
+        flushRefresh();
+        verify(pipeline).expire(LOGIN_USER_KEY + "t1", LOGIN_USER_TTL, TimeUnit.MINUTES);
+        verify(pipeline).expire(LOGIN_USER_KEY + "t2", LOGIN_USER_TTL, TimeUnit.MINUTES);
+        // 同一用户的多个 token 只续期一次索引
+        verify(pipeline, times(1)).expire(LOGIN_USER_TOKENS_KEY + "1", LOGIN_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    @Test
+    void invalidationEvictsLocalCopy() {
+        pttl = TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        sessionCache.get("t1");
+        sessionCache.invalidate("t1");
+        sessionCache.get("t1");
+        verify(redisService, times(2)).pipelined(any());
+        verify(redisService).publish(LOGIN_INVALIDATE_CHANNEL, "t1");
+
+        sessionCache.invalidateUser(1L);
+        sessionCache.get("t1");
+        verify(redisService, times(3)).pipelined(any());
+        verify(redisService).publish(eq(LOGIN_INVALIDATE_CHANNEL), eq("user:1"));
+    }
+
+    private void flushRefresh() {
+        ReflectionTestUtils.invokeMethod(sessionCache, "flushRefresh");
+    }
+}
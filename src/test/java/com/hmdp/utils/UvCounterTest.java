@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UvCounterTest {
+
+    @Test
+    void visitsAreBufferedAndFlushedInOneBatch() {
+        AtomicInteger batches = new AtomicInteger();
+        FakeRedisService redisService = new FakeRedisService() {
+            @Override
+            public void pfaddAll(Map<String, ? extends Collection<String>> values, long timeout, TimeUnit unit) {
+                batches.incrementAndGet();
+                super.pfaddAll(values, timeout, unit);
+            }
+        };
+        UvCounter uvCounter = uvCounter(redisService);
+
+        for (int i = 0; i < 10_000; i++) {
+            uvCounter.record("shop", 1L, "user" + (i % 100));
+            uvCounter.record("shop", 2L, "user" + (i % 7));
+        }
+        // 写入前不访问 Redis
+        assertEquals(0, batches.get());
+        assertEquals(0, uvCounter.count("shop", 1L, LocalDate.now()));
+
+        uvCounter.flush();
+        assertEquals(1, batches.get());
+        assertEquals(100, uvCounter.count("shop", 1L, LocalDate.now()));
+        assertEquals(7, uvCounter.countLastDays("shop", 2L, 7));
+
+        uvCounter.flush();
+        assertEquals(1, batches.get());
+    }
+
+    /**
+     * 单个计数器写入 1000 万个不同访客，验证内存占用和误差，需要本地 Redis：mvn test -Dredis.benchmark=true
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "redis.benchmark", matches = "true")
+    void tenMillionVisitorsFitInTwelveKilobytes() {
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        factory.afterPropertiesSet();
+        RedisService redisService = new RedisService();
+        ReflectionTestUtils.setField(redisService, "stringRedisTemplate", new StringRedisTemplate(factory));
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            UvCounter uvCounter = uvCounter(redisService);
+            ReflectionTestUtils.setField(uvCounter, "scheduler", scheduler);
+            long id = System.nanoTime();
+            int visitors = 10_000_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < visitors; i++) {
+                uvCounter.record("bench", id, String.valueOf(i));
+            }
+            long recordNanos = (System.nanoTime() - start) / visitors;
+            uvCounter.flush();
+
+            long count = uvCounter.count("bench", id, LocalDate.now());
+            String key = RedisConstants.UV_KEY + "{bench:" + id + "}:" + LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE);
+            int bytes = redisService.getBytes(key).length;
+            double error = Math.abs(count - visitors) / (double) visitors;
+            System.out.printf("uv: %d visitors, count %d, error %.4f, %d bytes, %d ns/record%n",
+                    visitors, count, error, bytes, recordNanos);
+            redisService.delete(key);
+            assertTrue(error < 0.02, "误差过大：" + error);
+            assertTrue(bytes <= 12 * 1024 + 32, "计数器占用 " + bytes + " 字节");
+        } finally {
+            scheduler.shutdown();
+            factory.destroy();
+        }
+    }
+
+    private static UvCounter uvCounter(RedisService redisService) {
+        UvCounter uvCounter = new UvCounter();
+        ReflectionTestUtils.setField(uvCounter, "redisService", redisService);
+        ReflectionTestUtils.setField(uvCounter, "maxPending", 100_000);
+        ReflectionTestUtils.setField(uvCounter, "retentionDays", 31L);
+        return uvCounter;
+    }
+}